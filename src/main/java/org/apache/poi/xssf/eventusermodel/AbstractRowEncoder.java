@@ -0,0 +1,56 @@
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Base for the bundled encoders: owns the output buffer and the
+ * bookkeeping of the row being written.
+ */
+public abstract class AbstractRowEncoder implements RowEncoder {
+
+    protected final ByteSink sink;
+
+    private OutputStream out;
+
+    public AbstractRowEncoder(OutputStream out) {
+        this.out = out;
+        this.sink = new ByteSink(out);
+    }
+
+    public void setOutput(OutputStream out) throws IOException {
+        sink.setOutput(out);
+        this.out = out;
+    }
+
+    public void startSheet(String sheetName, int sheetIndex) throws IOException {
+    }
+
+    public void endSheet() throws IOException {
+        sink.endRecord();
+    }
+
+    public long getBytesWritten() {
+        return sink.total();
+    }
+
+    public void flush() throws IOException {
+        sink.flush();
+    }
+
+    public void close() throws IOException {
+        sink.flush();
+        if (out != null)
+            out.close();
+    }
+
+    /**
+     * Converts a zero-based index into an Excel column name like "C".
+     */
+    static String columnToName(int column) {
+        StringBuilder name = new StringBuilder();
+        for (int c = column + 1; c > 0; c = (c - 1) / 26)
+            name.insert(0, (char) ('A' + (c - 1) % 26));
+        return name.toString();
+    }
+}
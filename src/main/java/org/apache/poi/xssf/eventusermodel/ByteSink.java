@@ -0,0 +1,178 @@
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Reusable, growable byte buffer that encodes characters straight to UTF-8.
+ * A whole record is kept in memory until {@link #endRecord()} decides to
+ * hand the buffer to the underlying stream, so encoders may rewind or copy
+ * bytes of the record that is being built.
+ */
+public final class ByteSink implements Flushable {
+
+    /** Buffered bytes are written out once a record ends past this mark */
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+
+    private byte[] buf;
+    private int pos;
+    private OutputStream out;
+    // Bytes handed to the underlying streams so far
+    private long written;
+
+    // Pending high surrogate of a pair split across writeChar() calls;
+    // anything but a low surrogate written next turns it into U+FFFD
+    private char highSurrogate;
+
+    public ByteSink(OutputStream out) {
+        this.out = out;
+        this.buf = new byte[FLUSH_THRESHOLD * 2];
+    }
+
+    /**
+     * Flushes everything written so far and redirects further output.
+     */
+    public void setOutput(OutputStream out) throws IOException {
+        flush();
+        this.out = out;
+    }
+
+    public int position() {
+        return pos;
+    }
+
+    /**
+     * @return the number of bytes written since creation, buffered or not
+     */
+    public long total() {
+        return written + pos;
+    }
+
+    /**
+     * Drops every byte written after the given position.
+     */
+    public void truncate(int position) {
+        this.pos = position;
+        this.highSurrogate = 0;
+    }
+
+    /**
+     * @return a copy of the bytes written since the given position
+     */
+    public byte[] copyFrom(int position) {
+        return Arrays.copyOfRange(buf, position, pos);
+    }
+
+    public void write(int b) {
+        if (highSurrogate != 0)
+            unpairedSurrogate();
+        if (pos == buf.length)
+            grow(1);
+        buf[pos++] = (byte) b;
+    }
+
+    public void write(byte[] bytes) {
+        if (highSurrogate != 0)
+            unpairedSurrogate();
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    /**
+     * Writes characters known to be 7-bit, e.g. numbers and fixed markup.
+     */
+    public void writeAscii(CharSequence s) {
+        if (highSurrogate != 0)
+            unpairedSurrogate();
+        int len = s.length();
+        ensure(len);
+        for (int i = 0; i < len; ++i)
+            buf[pos++] = (byte) s.charAt(i);
+    }
+
+    public void writeChars(CharSequence s) {
+        for (int i = 0, len = s.length(); i < len; ++i)
+            writeChar(s.charAt(i));
+    }
+
+    /**
+     * Appends one UTF-16 unit as UTF-8; surrogate pairs are combined and
+     * unpaired surrogates become U+FFFD.
+     */
+    public void writeChar(char c) {
+        if (highSurrogate != 0 && !Character.isLowSurrogate(c))
+            unpairedSurrogate();
+        ensure(4);
+        if (c < 0x80) {
+            buf[pos++] = (byte) c;
+        } else if (c < 0x800) {
+            buf[pos++] = (byte) (0xC0 | (c >> 6));
+            buf[pos++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            if (highSurrogate == 0) {
+                writeReplacement();
+                return;
+            }
+            int cp = Character.toCodePoint(highSurrogate, c);
+            highSurrogate = 0;
+            buf[pos++] = (byte) (0xF0 | (cp >> 18));
+            buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+        } else {
+            buf[pos++] = (byte) (0xE0 | (c >> 12));
+            buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[pos++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void unpairedSurrogate() {
+        highSurrogate = 0;
+        ensure(3);
+        writeReplacement();
+    }
+
+    // U+FFFD REPLACEMENT CHARACTER; room for it must be ensured
+    private void writeReplacement() {
+        buf[pos++] = (byte) 0xEF;
+        buf[pos++] = (byte) 0xBF;
+        buf[pos++] = (byte) 0xBD;
+    }
+
+    /**
+     * Called between records; writes the buffer out once it is big enough.
+     */
+    public void endRecord() throws IOException {
+        if (pos >= FLUSH_THRESHOLD) {
+            out.write(buf, 0, pos);
+            written += pos;
+            pos = 0;
+        }
+    }
+
+    public void flush() throws IOException {
+        if (highSurrogate != 0)
+            unpairedSurrogate();
+        if (pos > 0 && out != null) {
+            out.write(buf, 0, pos);
+            written += pos;
+            pos = 0;
+        }
+        if (out != null)
+            out.flush();
+    }
+
+    private void ensure(int extra) {
+        if (pos + extra > buf.length)
+            grow(extra);
+    }
+
+    private void grow(int extra) {
+        buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+    }
+}
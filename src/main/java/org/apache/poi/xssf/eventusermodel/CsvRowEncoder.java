@@ -0,0 +1,96 @@
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Delimiter separated output. Text cells are always quoted, with quote
+ * characters inside them doubled; numbers and booleans are written bare.
+ * Columns missing from a row are left empty.
+ */
+public class CsvRowEncoder extends AbstractRowEncoder {
+
+    private final char delimiter;
+    private final char quote;
+    private final String lineEnding;
+
+    // Number of fields written to the current row so far
+    private int fieldCount;
+
+    /**
+     * Comma separated, double-quoted, platform line endings.
+     */
+    public CsvRowEncoder(OutputStream out) {
+        this(out, ',', '"', System.lineSeparator());
+    }
+
+    /**
+     * @param out The stream to write to
+     * @param delimiter The field separator
+     * @param quote The character wrapped around text cells
+     * @param lineEnding The record terminator, e.g. "\r\n"
+     */
+    public CsvRowEncoder(OutputStream out, char delimiter, char quote, String lineEnding) {
+        super(out);
+        this.delimiter = delimiter;
+        this.quote = quote;
+        this.lineEnding = lineEnding;
+    }
+
+    public String fileExtension() {
+        return "csv";
+    }
+
+    public void writeSheetBanner(String sheetName, int sheetIndex) throws IOException {
+        sink.writeAscii(lineEnding);
+        sink.writeChars(sheetName);
+        sink.writeAscii(" [index=");
+        sink.writeAscii(Integer.toString(sheetIndex));
+        sink.writeAscii("]:");
+        sink.writeAscii(lineEnding);
+    }
+
+    public void startRow(int rowNumber) {
+        fieldCount = 0;
+    }
+
+    public void writeText(int column, CharSequence value) {
+        nextField(column);
+        sink.writeChar(quote);
+        for (int i = 0, len = value.length(); i < len; ++i) {
+            char c = value.charAt(i);
+            if (c == quote)
+                sink.writeChar(quote);
+            sink.writeChar(c);
+        }
+        sink.writeChar(quote);
+    }
+
+    public void writeNumber(int column, CharSequence value) {
+        nextField(column);
+        sink.writeChars(value);
+    }
+
+    public void writeBoolean(int column, boolean value) {
+        nextField(column);
+        sink.writeAscii(value ? "TRUE" : "FALSE");
+    }
+
+    public void endRow(int minColumns) throws IOException {
+        while (fieldCount < minColumns)
+            nextField(fieldCount);
+        sink.writeAscii(lineEnding);
+        sink.endRecord();
+    }
+
+    /**
+     * Emits delimiters for any fields that were missing before the column.
+     */
+    private void nextField(int column) {
+        do {
+            if (fieldCount > 0)
+                sink.writeChar(delimiter);
+            ++fieldCount;
+        } while (fieldCount <= column);
+    }
+}
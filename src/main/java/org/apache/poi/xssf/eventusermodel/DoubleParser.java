@@ -0,0 +1,54 @@
+package org.apache.poi.xssf.eventusermodel;
+
+/**
+ * Decimal literals in the row arena: the check that a number cell holds
+ * one, and its conversion by {@link Double#parseDouble}.
+ */
+final class DoubleParser {
+
+    private DoubleParser() {
+    }
+
+    /**
+     * @return the value of the literal
+     * @throws NumberFormatException if the text is not a number
+     */
+    static double parse(char[] buf, int start, int length) {
+        return Double.parseDouble(new String(buf, start, length));
+    }
+
+    /**
+     * Checks for a plain decimal literal: an optional sign, digits with an
+     * optional decimal point and an optional exponent. Everything accepted
+     * is accepted by {@link #parse} as well.
+     */
+    static boolean isDecimal(char[] buf, int start, int length) {
+        int end = start + length;
+        int c = start;
+        if (c < end && (buf[c] == '-' || buf[c] == '+'))
+            ++c;
+        boolean anyDigit = false;
+        boolean dot = false;
+        for (; c < end; ++c) {
+            char ch = buf[c];
+            if (ch >= '0' && ch <= '9')
+                anyDigit = true;
+            else if (ch == '.' && !dot)
+                dot = true;
+            else
+                break;
+        }
+        if (!anyDigit)
+            return false;
+        if (c < end && (buf[c] == 'e' || buf[c] == 'E')) {
+            ++c;
+            if (c < end && (buf[c] == '-' || buf[c] == '+'))
+                ++c;
+            if (c == end)
+                return false;
+            while (c < end && buf[c] >= '0' && buf[c] <= '9')
+                ++c;
+        }
+        return c == end;
+    }
+}
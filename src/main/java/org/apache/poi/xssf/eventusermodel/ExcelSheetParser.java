@@ -8,13 +8,11 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
-import org.apache.log4j.BasicConfigurator;
-import org.apache.log4j.Level;
-import org.apache.log4j.Logger;
 import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
 import org.apache.poi.openxml4j.opc.OPCPackage;
 import org.apache.poi.openxml4j.opc.PackageAccess;
@@ -24,7 +22,6 @@ import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
 import org.apache.poi.xssf.eventusermodel.XSSFReader;
 import org.apache.poi.xssf.model.StylesTable;
 import org.apache.poi.xssf.usermodel.XSSFCellStyle;
-import org.apache.poi.xssf.usermodel.XSSFRichTextString;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
@@ -38,8 +35,6 @@ public class ExcelSheetParser {
         BOOL, ERROR, FORMULA, INLINESTR, SSTINDEX, NUMBER,
     }
 
-    int countrows = 0;
-
     class XSSFSheetHandler extends DefaultHandler {
 
         /**
@@ -48,24 +43,19 @@ public class ExcelSheetParser {
         private StylesTable stylesTable;
 
         /**
-         * Table with unique strings
+         * Cells of the current row
          */
-        private ReadOnlySharedStringsTable sharedStringsTable;
+        private final RowBuffer row;
 
         /**
-         * Destination for data
+         * Receives every row at its end
          */
-        private final PrintStream output;
+        private final RowConsumer consumer;
 
         private List<?> list = new ArrayList();
 
         private Class clazz;
 
-        /**
-         * Number of columns to read starting with leftmost
-         */
-        private final int minColumnCount;
-
         // Set when V start element is seen
         private boolean vIsOpen;
 
@@ -79,45 +69,61 @@ public class ExcelSheetParser {
         private final DataFormatter formatter;
 
         private int thisColumn = -1;
-        // The last column printed to the output stream
-        private int lastColumnNumber = -1;
+        // Row number taken from the "r" attribute, or counted when absent
+        private int currentRow = 0;
+        private int cellsInRow;
 
-        // Gathers characters as they are seen.
-        private StringBuffer value;
+        // Copied from the limits, checked on every element
+        private final int maxCellChars;
+        private final int maxCellsPerRow;
+        private final int maxRowChars;
+        private final long maxRows;
 
         /**
          * Accepts objects needed while parsing.
          *
          * @param styles
          *            Table of styles
-         * @param strings
-         *            Table of shared strings
-         * @param cols
-         *            Minimum number of columns to show
-         * @param target
-         *            Sink for output
+         * @param row
+         *            Buffer the cells are gathered in as they are seen
+         * @param consumer
+         *            Sink for rows
          */
-        public XSSFSheetHandler(StylesTable styles,
-                                ReadOnlySharedStringsTable strings, int cols, PrintStream target) {
+        public XSSFSheetHandler(StylesTable styles, RowBuffer row,
+                                RowConsumer consumer) {
             this.stylesTable = styles;
-            this.sharedStringsTable = strings;
-            this.minColumnCount = cols;
-            this.output = target;
-            this.value = new StringBuffer();
+            this.row = row;
+            this.consumer = consumer;
             this.nextDataType = xssfDataType.NUMBER;
             this.formatter = new DataFormatter();
+            this.maxCellChars = limits.getMaxCellChars();
+            this.maxCellsPerRow = limits.getMaxCellsPerRow();
+            this.maxRowChars = limits.getMaxRowChars();
+            this.maxRows = limits.getMaxRows();
         }
 
         public void startElement(String uri, String localName, String name,
                                  Attributes attributes) throws SAXException {
 
-            if ("inlineStr".equals(name) || "v".equals(name)) {
+            if ("row".equals(name)) {
+                String r = attributes.getValue("r");
+                currentRow = r != null ? Integer.parseInt(r) : currentRow + 1;
+                if (++rowCount > maxRows)
+                    throw new LimitExceededException("Workbook has more than "
+                            + maxRows + " rows");
+                cellsInRow = 0;
+                row.reset(currentRow);
+            }
+            else if ("inlineStr".equals(name) || "v".equals(name)) {
                 vIsOpen = true;
-                // Clear contents cache
-                value.setLength(0);
+                // The value is collected straight into the row
+                row.beginValue();
             }
             // c => cell
             else if ("c".equals(name)) {
+                if (++cellsInRow > maxCellsPerRow)
+                    throw new LimitExceededException("Row " + currentRow
+                            + " has more than " + maxCellsPerRow + " cells");
                 // Get the cell reference
                 String r = attributes.getValue("r");
                 int firstDigit = -1;
@@ -162,8 +168,17 @@ public class ExcelSheetParser {
 
         public void endElement(String uri, String localName, String name)
                 throws SAXException {
+            try {
+                endElement(name);
+            } catch (IOException ex) {
+                throw new SAXException(ex);
+            }
+        }
+
+        private void endElement(String name) throws IOException, SAXException {
 
-            String thisStr = null;
+            if ("inlineStr".equals(name) || "v".equals(name))
+                vIsOpen = false;
 
             // v => contents of a cell
             if ("v".equals(name)) {
@@ -172,90 +187,60 @@ public class ExcelSheetParser {
                 switch (nextDataType) {
 
                     case BOOL:
-                        char first = value.charAt(0);
-                        thisStr = first == '0' ? "FALSE" : "TRUE";
+                        row.commitBoolean(thisColumn);
                         break;
 
                     case ERROR:
-                        thisStr = "\"ERROR:" + value.toString() + '"';
+                        String error = row.valueString();
+                        row.discardValue();
+                        row.appendValue("ERROR:");
+                        row.appendValue(error);
+                        row.commitText(thisColumn);
                         break;
 
                     case FORMULA:
                         // A formula could result in a string value,
-                        // so always add double-quote characters.
-                        thisStr = '"' + value.toString() + '"';
+                        // so always keep it as text.
+                        row.commitText(thisColumn);
                         break;
 
                     case INLINESTR:
                         // TODO: have seen an example of this, so it's untested.
-                        XSSFRichTextString rtsi = new XSSFRichTextString(value
-                                .toString());
-                        thisStr = '"' + rtsi.toString() + '"';
+                        row.commitText(thisColumn);
                         break;
 
                     case SSTINDEX:
-                        String sstIndex = value.toString();
                         try {
-                            int idx = Integer.parseInt(sstIndex);
-                            XSSFRichTextString rtss = new XSSFRichTextString(
-                                    sharedStringsTable.getEntryAt(idx));
-                            thisStr = '"' + rtss.toString() + '"';
+                            row.commitSharedString(thisColumn);
                         } catch (NumberFormatException ex) {
-                            output.println("Failed to parse SST index '" + sstIndex
-                                    + "': " + ex.toString());
+                            throw new SAXException("Failed to parse SST index '" + row.valueString()
+                                    + "': " + ex.toString(), ex);
                         }
                         break;
 
                     case NUMBER:
-                        String n = value.toString();
-                        if (this.formatString != null)
-                            thisStr = formatter.formatRawCellContents(Double
-                                            .parseDouble(n), this.formatIndex,
+                        if (this.formatString != null) {
+                            String formatted = formatter.formatRawCellContents(
+                                    Double.parseDouble(row.valueString()), this.formatIndex,
                                     this.formatString);
+                            row.discardValue();
+                            row.appendValue(formatted);
+                            row.commitText(thisColumn);
+                        }
                         else
-                            thisStr = n;
+                            row.commitNumber(thisColumn);
                         break;
 
                     default:
-                        thisStr = "(TODO: Unexpected type: " + nextDataType + ")";
+                        row.discardValue();
+                        row.appendValue("(TODO: Unexpected type: " + nextDataType + ")");
+                        row.commitText(thisColumn);
                         break;
                 }
 
-                // Output after we've seen the string contents
-                // Emit commas for any fields that were missing on this row
-                if (lastColumnNumber == -1) {
-                    lastColumnNumber = 0;
-                }
-                for (int i = lastColumnNumber; i < thisColumn; ++i)
-                    output.print(',');
-
-                // Might be the empty string.
-                output.print(thisColumn +" : "+thisStr);
-
-                // Update column
-                if (thisColumn > -1)
-                    lastColumnNumber = thisColumn;
-
             } else if ("row".equals(name)) {
 
-                // Print out any missing commas if needed
-                if (minColumns > 0) {
-                    // Columns are 0 based
-                    if (lastColumnNumber == -1) {
-                        lastColumnNumber = 0;
-                    }
-                    for (int i = lastColumnNumber; i < (this.minColumnCount); i++) {
-                        output.print(',');
-                    }
-                }
-
-
-
-                // We're onto a new row
-
-                output.println();
-                output.println(countrows++);
-                lastColumnNumber = -1;
+                consumer.accept(row);
 
             }
 
@@ -267,8 +252,15 @@ public class ExcelSheetParser {
          */
         public void characters(char[] ch, int start, int length)
                 throws SAXException {
-            if (vIsOpen)
-                value.append(ch, start, length);
+            if (vIsOpen) {
+                if (row.valueLength() + length > maxCellChars)
+                    throw new LimitExceededException("Cell in row " + currentRow
+                            + " has more than " + maxCellChars + " characters");
+                if (row.charCount() + length > maxRowChars)
+                    throw new LimitExceededException("Row " + currentRow
+                            + " has more than " + maxRowChars + " characters");
+                row.appendValue(ch, start, length);
+            }
         }
 
         /**
@@ -292,8 +284,12 @@ public class ExcelSheetParser {
 
     private OPCPackage xlsxPackage;
     private int minColumns;
-    private PrintStream output;
+    private RowEncoder output;
     private Class clazz;
+    private ParseLimits limits = new ParseLimits();
+    private long rowCount;
+    private final RowBuffer rowBuffer = new RowBuffer();
+    private final RowWriter rowWriter;
 
     /**
      * Creates a new XLSX -> CSV converter
@@ -306,10 +302,44 @@ public class ExcelSheetParser {
      *            The minimum number of columns to output, or -1 for no minimum
      */
     public ExcelSheetParser(OPCPackage pkg, PrintStream output, int minColumns) {
+        this(pkg, new CsvRowEncoder(output), minColumns);
+    }
+
+    /**
+     * Creates a new XLSX converter writing into any encoder
+     *
+     * @param pkg
+     *            The XLSX package to process
+     * @param output
+     *            The encoder the cells are written into
+     * @param minColumns
+     *            The minimum number of columns to output, or -1 for no minimum
+     */
+    public ExcelSheetParser(OPCPackage pkg, RowEncoder output, int minColumns) {
         this.xlsxPackage = pkg;
         this.output = output;
         this.minColumns = minColumns;
+        this.rowWriter = new RowWriter(output, minColumns);
+    }
+
+    /**
+     * Bounds the resources spent on the workbook.
+     *
+     * @param limits
+     *            The limits checked while parsing
+     */
+    public void setLimits(ParseLimits limits) {
+        this.limits = limits;
+    }
 
+    /**
+     * Writes one parsed row to the encoder.
+     *
+     * @param row
+     *            The cells of the row
+     */
+    public void writeRow(RowBuffer row) throws IOException {
+        this.rowWriter.accept(row);
     }
 
     /**
@@ -326,10 +356,13 @@ public class ExcelSheetParser {
 
         InputSource sheetSource = new InputSource(sheetInputStream);
         SAXParserFactory saxFactory = SAXParserFactory.newInstance();
+        saxFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        saxFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
         SAXParser saxParser = saxFactory.newSAXParser();
         XMLReader sheetParser = saxParser.getXMLReader();
-        ContentHandler handler = new XSSFSheetHandler(styles, strings,
-                this.minColumns, this.output);
+        this.rowBuffer.setSharedStrings(strings);
+        ContentHandler handler = new XSSFSheetHandler(styles, this.rowBuffer,
+                this::writeRow);
         sheetParser.setContentHandler(handler);
         sheetParser.parse(sheetSource);
     }
@@ -345,8 +378,8 @@ public class ExcelSheetParser {
     public void process() throws IOException, OpenXML4JException,
             ParserConfigurationException, SAXException {
 
-        ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(
-                this.xlsxPackage);
+        this.rowCount = 0;
+        ReadOnlySharedStringsTable strings = this.limits.readSharedStrings(this.xlsxPackage);
         XSSFReader xssfReader = new XSSFReader(this.xlsxPackage);
 
         StylesTable styles = xssfReader.getStylesTable();
@@ -355,12 +388,16 @@ public class ExcelSheetParser {
         int index = 0;
         while (iter.hasNext()) {
             InputStream stream = iter.next();
+            stream = this.limits.guard(iter.getSheetPart(), stream);
             String sheetName = iter.getSheetName();
-            this.output.println(sheetName + " [index=" + index + "]:");
+            this.output.writeSheetBanner(sheetName, index);
+            this.output.startSheet(sheetName, index);
             processSheet(styles, strings, stream);
+            this.output.endSheet();
             stream.close();
             ++index;
         }
+        this.output.flush();
     }
 
     public static void main(String[] args) throws Exception {
@@ -381,16 +418,7 @@ public class ExcelSheetParser {
             minColumns = Integer.parseInt(args[1]);
         }
 
-        // If no log4j configuration is provided, these messages appear:
-        //   log4j:WARN No appenders could be found for logger (org.openxml4j.opc).
-        //   log4j:WARN Please initialize the log4j system properly.
-        // If only the BasicConfigurator.configure() is done, these messages appear:
-        //   0 [main] DEBUG org.openxml4j.opc  - Parsing relationship: /xl/_rels/workbook.xml.rels
-        //  46 [main] DEBUG org.openxml4j.opc  - Parsing relationship: /_rels/.rels
-        // Added the call to setLevel() to turn these off, now I see nothing.
-
-        BasicConfigurator.configure();
-        Logger.getRootLogger().setLevel(Level.INFO);
+        XLSX2CSV.configureLogging();
 
         // The package open is instantaneous, as it should be.
         OPCPackage p = OPCPackage.open(xlsxFile.getPath(), PackageAccess.READ);
@@ -0,0 +1,185 @@
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * JSON Lines output: the first row of every sheet supplies the keys, each
+ * following row becomes one object on a line of its own. Columns without
+ * a header are keyed by their Excel name ("A", "B", ...), empty cells are
+ * left out.
+ */
+public class JsonLinesRowEncoder extends AbstractRowEncoder {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Encoded, quoted keys indexed by column
+    private byte[][] keys = new byte[16][];
+
+    // Columns put in front of the sheet's own, which do not shift its names
+    private int leadingColumns;
+
+    private boolean headerPending;
+    private boolean inHeader;
+    private boolean firstCell;
+
+    public JsonLinesRowEncoder(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * Declares that a wrapping encoder inserts this many columns before the
+     * sheet's first one, so that unlabeled columns keep their Excel names.
+     */
+    public void setLeadingColumns(int leadingColumns) {
+        this.leadingColumns = leadingColumns;
+    }
+
+    public String fileExtension() {
+        return "jsonl";
+    }
+
+    /**
+     * Sheet banners would break the one-object-per-line format.
+     */
+    public void writeSheetBanner(String sheetName, int sheetIndex) {
+    }
+
+    public void startSheet(String sheetName, int sheetIndex) {
+        Arrays.fill(keys, null);
+        headerPending = true;
+    }
+
+    public void startRow(int rowNumber) {
+        inHeader = headerPending;
+        headerPending = false;
+        if (!inHeader) {
+            sink.write('{');
+            firstCell = true;
+        }
+    }
+
+    public void writeText(int column, CharSequence value) {
+        if (inHeader) {
+            setKey(column, value);
+            return;
+        }
+        key(column);
+        writeString(value);
+    }
+
+    public void writeNumber(int column, CharSequence value) {
+        if (inHeader) {
+            setKey(column, value);
+            return;
+        }
+        key(column);
+        if (value.length() == 0)
+            sink.writeAscii("null");
+        else if (isJsonNumber(value))
+            sink.writeAscii(value);
+        else
+            writeString(value);
+    }
+
+    /**
+     * Checks a literal against the JSON number grammar; anything else is
+     * written as a string so that the line stays valid JSON.
+     */
+    static boolean isJsonNumber(CharSequence value) {
+        int len = value.length();
+        int i = 0;
+        if (i < len && value.charAt(i) == '-')
+            ++i;
+        if (i == len)
+            return false;
+        if (value.charAt(i) == '0')
+            ++i;
+        else
+            i = skipDigits(value, i);
+        if (i < 0)
+            return false;
+        if (i < len && value.charAt(i) == '.')
+            i = skipDigits(value, i + 1);
+        if (i >= 0 && i < len && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+            ++i;
+            if (i < len && (value.charAt(i) == '+' || value.charAt(i) == '-'))
+                ++i;
+            i = skipDigits(value, i);
+        }
+        return i == len;
+    }
+
+    /**
+     * @return the index after the digits from i, or -1 if there are none
+     */
+    private static int skipDigits(CharSequence value, int i) {
+        int start = i;
+        while (i < value.length() && value.charAt(i) >= '0' && value.charAt(i) <= '9')
+            ++i;
+        return i == start ? -1 : i;
+    }
+
+    public void writeBoolean(int column, boolean value) {
+        if (inHeader) {
+            setKey(column, value ? "TRUE" : "FALSE");
+            return;
+        }
+        key(column);
+        sink.writeAscii(value ? "true" : "false");
+    }
+
+    public void endRow(int minColumns) throws IOException {
+        if (inHeader) {
+            inHeader = false;
+            return;
+        }
+        sink.write('}');
+        sink.write('\n');
+        sink.endRecord();
+    }
+
+    private void key(int column) {
+        if (!firstCell)
+            sink.write(',');
+        firstCell = false;
+        if (column >= keys.length || keys[column] == null)
+            setKey(column, columnToName(Math.max(0, column - leadingColumns)));
+        sink.write(keys[column]);
+        sink.write(':');
+    }
+
+    private void setKey(int column, CharSequence name) {
+        if (column >= keys.length)
+            keys = Arrays.copyOf(keys, Math.max(keys.length * 2, column + 1));
+        int mark = sink.position();
+        writeString(name);
+        keys[column] = sink.copyFrom(mark);
+        sink.truncate(mark);
+    }
+
+    private void writeString(CharSequence value) {
+        sink.write('"');
+        for (int i = 0, len = value.length(); i < len; ++i) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sink.writeAscii("\\\""); break;
+                case '\\': sink.writeAscii("\\\\"); break;
+                case '\n': sink.writeAscii("\\n"); break;
+                case '\r': sink.writeAscii("\\r"); break;
+                case '\t': sink.writeAscii("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sink.writeAscii("\\u00");
+                        sink.write(HEX[c >> 4]);
+                        sink.write(HEX[c & 0xF]);
+                    } else {
+                        sink.writeChar(c);
+                    }
+                    break;
+            }
+        }
+        sink.write('"');
+    }
+}
@@ -0,0 +1,16 @@
+package org.apache.poi.xssf.eventusermodel;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Thrown by the sheet handlers when a workbook breaks one of its
+ * {@link ParseLimits}; parsing stops at the offending element.
+ */
+public class LimitExceededException extends SAXException {
+
+    private static final long serialVersionUID = 1L;
+
+    public LimitExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,266 @@
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.ZipEntry;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.ZipPackagePart;
+import org.apache.poi.openxml4j.util.ZipSecureFile;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+/**
+ * Resource bounds for converting untrusted workbooks. The cell, row and
+ * column bounds are checked by the sheet handlers as elements arrive.
+ * The part size bound can be installed into POI's {@link ZipSecureFile};
+ * sheet and shared strings streams are counted against both the size and
+ * the compression ratio bound regardless, since POI cannot see compressed byte counts
+ * on newer JDKs and skips its ratio check there.
+ * Defaults follow the Excel specification limits.
+ */
+public class ParseLimits {
+
+    /** Parts inflating to less than this are never too compressed */
+    private static final long GRACE_PART_BYTES = 100 * 1024;
+
+    /** Inflated bytes of the smallest shared string item, {@code <si/>} */
+    private static final int MIN_SHARED_STRING_BYTES = 5;
+
+    private long maxPartBytes = 0xFFFFFFFFL;
+    private double minInflateRatio = 0.01d;
+    private int maxCellChars = 32767;
+    private int maxCellsPerRow = 16384;
+    private int maxRowChars = 16 * 1024 * 1024;
+    private long maxRows = Long.MAX_VALUE;
+
+    public long getMaxPartBytes() { return maxPartBytes; }
+
+    /**
+     * @param maxPartBytes The largest inflated size of one zip part
+     */
+    public void setMaxPartBytes(long maxPartBytes) { this.maxPartBytes = maxPartBytes; }
+
+    public double getMinInflateRatio() { return minInflateRatio; }
+
+    /**
+     * @param minInflateRatio The smallest compressed to inflated size ratio
+     *                        of a part, e.g. 0.01 stops at 100x compression
+     */
+    public void setMinInflateRatio(double minInflateRatio) { this.minInflateRatio = minInflateRatio; }
+
+    public int getMaxCellChars() { return maxCellChars; }
+
+    /**
+     * @param maxCellChars The largest number of characters in a cell value
+     */
+    public void setMaxCellChars(int maxCellChars) { this.maxCellChars = maxCellChars; }
+
+    public int getMaxCellsPerRow() { return maxCellsPerRow; }
+
+    public void setMaxCellsPerRow(int maxCellsPerRow) { this.maxCellsPerRow = maxCellsPerRow; }
+
+    public int getMaxRowChars() { return maxRowChars; }
+
+    /**
+     * @param maxRowChars The largest number of characters in all cell values
+     *                    of a row; the two bounds above allow 16384 x 32767
+     */
+    public void setMaxRowChars(int maxRowChars) { this.maxRowChars = maxRowChars; }
+
+    public long getMaxRows() { return maxRows; }
+
+    /**
+     * @param maxRows The largest number of rows parsed from all sheets of a workbook
+     */
+    public void setMaxRows(long maxRows) { this.maxRows = maxRows; }
+
+    /**
+     * Installs the part size and ratio bounds. {@link ZipSecureFile} keeps
+     * them in static fields, so they hold for every package in the JVM;
+     * the converters therefore never call this themselves, only main does.
+     */
+    public void applyToZipSecureFile() {
+        ZipSecureFile.setMaxEntrySize(maxPartBytes);
+        ZipSecureFile.setMinInflateRatio(minInflateRatio);
+    }
+
+    /**
+     * Rejects a part by the sizes it declares, before it is inflated.
+     */
+    public void checkDeclaredSize(PackagePart part) throws IOException {
+        if (part instanceof ZipPackagePart) {
+            ZipEntry entry = ((ZipPackagePart) part).getZipArchive();
+            long limit = inflateLimit(entry.getCompressedSize());
+            if (entry.getSize() > limit)
+                throw new IOException("Part " + part.getPartName() + " declares " + entry.getSize()
+                        + " inflated bytes from " + entry.getCompressedSize()
+                        + " compressed ones, the part size or compression ratio limit allows " + limit);
+        }
+    }
+
+    /**
+     * Wraps the stream of a part so that reading fails once more bytes are
+     * inflated than the part size or compression ratio bound allows.
+     */
+    public InputStream guard(PackagePart part, InputStream in) throws IOException {
+        checkDeclaredSize(part);
+        return new LimitedInputStream(in, inflateLimit(part), part.getPartName().getName());
+    }
+
+    /**
+     * Loads the shared strings table of a package through {@link #guard},
+     * holding every string to the cell value bound, since the whole table
+     * is kept in memory.
+     */
+    public ReadOnlySharedStringsTable readSharedStrings(OPCPackage pkg)
+            throws IOException, SAXException {
+        List<PackagePart> parts = pkg.getPartsByContentType(XLSX2CSV.SHARED_STRINGS_CONTENT_TYPE);
+        // Some workbooks have no shared strings table
+        if (parts.isEmpty())
+            return new ReadOnlySharedStringsTable(pkg);
+        return new LimitedSharedStringsTable(parts.get(0), this);
+    }
+
+    private long inflateLimit(PackagePart part) {
+        return inflateLimit(part instanceof ZipPackagePart
+                ? ((ZipPackagePart) part).getZipArchive().getCompressedSize() : -1);
+    }
+
+    private long inflateLimit(long compressedSize) {
+        if (compressedSize <= 0 || minInflateRatio <= 0)
+            return maxPartBytes;
+        long byRatio = Math.max(GRACE_PART_BYTES, (long) (compressedSize / minInflateRatio));
+        return Math.min(maxPartBytes, byRatio);
+    }
+
+    /**
+     * Shared strings read from a guarded stream, failing on a string longer
+     * than the cell value bound and on a declared string count the part
+     * cannot hold, which the superclass would allocate up front.
+     */
+    private static class LimitedSharedStringsTable extends ReadOnlySharedStringsTable {
+        private boolean guarded;
+        private final int maxChars;
+        private final long maxStrings;
+        private boolean inText;
+        private int chars;
+
+        LimitedSharedStringsTable(PackagePart part, ParseLimits limits) throws IOException, SAXException {
+            // The superclass reads the raw part stream; that read is skipped
+            super(part);
+            this.guarded = true;
+            this.maxChars = limits.maxCellChars;
+            this.maxStrings = limits.inflateLimit(part) / MIN_SHARED_STRING_BYTES;
+            try (InputStream in = limits.guard(part, part.getInputStream())) {
+                readFrom(in);
+            }
+        }
+
+        @Override
+        public void readFrom(InputStream is) throws IOException, SAXException {
+            if (!guarded) {
+                is.close();
+                return;
+            }
+            super.readFrom(is);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String name, Attributes attributes)
+                throws SAXException {
+            if ("sst".equals(localName)) {
+                checkCount(attributes.getValue("count"), Integer.MAX_VALUE);
+                checkCount(attributes.getValue("uniqueCount"), maxStrings);
+            }
+            else if ("si".equals(localName))
+                chars = 0;
+            else if ("t".equals(localName))
+                inText = true;
+            super.startElement(uri, localName, name, attributes);
+        }
+
+        private static void checkCount(String value, long max) throws SAXException {
+            if (value == null)
+                return;
+            long count;
+            try {
+                count = Long.parseLong(value);
+            }
+            catch (NumberFormatException ex) {
+                throw new SAXException("Invalid shared string count: " + value);
+            }
+            if (count < 0 || count > Integer.MAX_VALUE)
+                throw new SAXException("Invalid shared string count: " + value);
+            if (count > max)
+                throw new LimitExceededException("Shared strings table declares " + count
+                        + " strings, more than the part size or compression ratio limit allows: " + max);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String name) throws SAXException {
+            if ("t".equals(localName))
+                inText = false;
+            super.endElement(uri, localName, name);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (inText) {
+                chars += length;
+                if (chars > maxChars)
+                    throw new LimitExceededException("Shared string " + getItems().size()
+                            + " is longer than " + maxChars + " characters");
+            }
+            super.characters(ch, start, length);
+        }
+    }
+
+    /**
+     * Counts inflated bytes; one comparison per read.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private final String partName;
+        private long count;
+
+        LimitedInputStream(InputStream in, long limit, String partName) {
+            super(in);
+            this.limit = limit;
+            this.partName = partName;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                advance(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                advance(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            advance(skipped);
+            return skipped;
+        }
+
+        private void advance(long n) throws IOException {
+            count += n;
+            if (count > limit)
+                throw new IOException("Part " + partName + " inflates past " + limit
+                        + " bytes, beyond the part size or compression ratio limit");
+        }
+    }
+}
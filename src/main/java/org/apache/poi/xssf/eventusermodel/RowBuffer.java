@@ -0,0 +1,366 @@
+package org.apache.poi.xssf.eventusermodel;
+
+import java.util.Arrays;
+
+/**
+ * The cells of one row in parallel primitive arrays, with all text in one
+ * shared char arena. A sheet handler fills the buffer while the row is
+ * parsed and hands it to a {@link RowConsumer} at the end of the row; the
+ * buffer is then reset and reused, so once it has grown to the widest row
+ * no further allocation happens.
+ * <p>
+ * A cell value is built in place: {@link #beginValue()}, any number of
+ * {@link #appendValue} calls as characters arrive, then one of the
+ * {@code commit} methods, which decides how the value is stored.
+ */
+public class RowBuffer {
+
+    /** Value in {@link #getBoolean} */
+    public static final byte BOOLEAN = 0;
+    /** Integral number: value in {@link #getLong}, literal in {@link #getText} */
+    public static final byte LONG = 1;
+    /** Other number: value in {@link #getDouble}, literal in {@link #getText} */
+    public static final byte DOUBLE = 2;
+    /** Index in {@link #getSharedStringIndex}, string in {@link #getText} */
+    public static final byte SHARED_STRING = 3;
+    /** String in {@link #getText} */
+    public static final byte TEXT = 4;
+    /** Date, time or date-time serial number: value in {@link #getDouble}, literal in {@link #getText} */
+    public static final byte DATE = 5;
+    public static final byte TIME = 6;
+    public static final byte DATETIME = 7;
+
+    private int rowNumber;
+    private int size;
+
+    private int[] columns;
+    private byte[] types;
+    private long[] longs;
+    private double[] doubles;
+    private int[] ints;
+    private int[] textStart;
+    private int[] textLength;
+
+    private char[] arena;
+    private int arenaSize;
+    // Start of the value under construction in the arena
+    private int valueStart;
+
+    // Doubles are parsed on first use; this marks the ones that were
+    private boolean[] doubleParsed;
+
+    private ReadOnlySharedStringsTable sharedStrings;
+    private final TextView view = new TextView();
+
+    public RowBuffer() {
+        this(16, 256);
+    }
+
+    /**
+     * @param cells The initial number of cells
+     * @param chars The initial size of the text arena
+     */
+    public RowBuffer(int cells, int chars) {
+        columns = new int[cells];
+        types = new byte[cells];
+        longs = new long[cells];
+        doubles = new double[cells];
+        doubleParsed = new boolean[cells];
+        ints = new int[cells];
+        textStart = new int[cells];
+        textLength = new int[cells];
+        arena = new char[chars];
+    }
+
+    /**
+     * @param sharedStrings The table {@link #SHARED_STRING} cells are resolved in
+     */
+    public void setSharedStrings(ReadOnlySharedStringsTable sharedStrings) {
+        this.sharedStrings = sharedStrings;
+    }
+
+    /**
+     * Empties the buffer for the next row, keeping its arrays.
+     *
+     * @param rowNumber The one-based row number
+     */
+    public void reset(int rowNumber) {
+        this.rowNumber = rowNumber;
+        this.size = 0;
+        this.arenaSize = 0;
+        this.valueStart = 0;
+    }
+
+    public int getRowNumber() { return rowNumber; }
+
+    /**
+     * @return the number of cells in the row
+     */
+    public int size() { return size; }
+
+    /**
+     * @return the zero-based column of the i-th cell; cells are in sheet order
+     */
+    public int getColumn(int i) { return columns[i]; }
+
+    public byte getType(int i) { return types[i]; }
+
+    public boolean getBoolean(int i) { return longs[i] != 0; }
+
+    public long getLong(int i) { return longs[i]; }
+
+    public int getSharedStringIndex(int i) { return ints[i]; }
+
+    /**
+     * @return the numeric value of a {@link #LONG}, {@link #DOUBLE} or date cell
+     */
+    public double getDouble(int i) {
+        if (types[i] == LONG)
+            return longs[i];
+        if (!doubleParsed[i]) {
+            doubles[i] = DoubleParser.parse(arena, textStart[i], textLength[i]);
+            doubleParsed[i] = true;
+        }
+        return doubles[i];
+    }
+
+    /**
+     * Returns the text of a cell: the string, the shared string or the
+     * literal of a number. The returned view is reused by the next call.
+     */
+    public CharSequence getText(int i) {
+        if (types[i] == SHARED_STRING)
+            return decodeEscapes(sharedStrings.getEntryAt(ints[i]));
+        if (types[i] == BOOLEAN)
+            return longs[i] != 0 ? "TRUE" : "FALSE";
+        view.start = textStart[i];
+        view.length = textLength[i];
+        return view;
+    }
+
+    /**
+     * Replaces the _xHHHH_ escapes OOXML uses for characters XML cannot
+     * carry, as XSSFRichTextString does, without building its xmlbeans
+     * model. Strings without escapes are returned as they are.
+     */
+    static String decodeEscapes(String value) {
+        int next = value.indexOf("_x");
+        if (next < 0)
+            return value;
+        StringBuilder decoded = null;
+        int copied = 0;
+        for (; next >= 0; next = value.indexOf("_x", next + 1)) {
+            if (next + 7 > value.length() || value.charAt(next + 6) != '_')
+                continue;
+            int code = 0;
+            for (int c = next + 2; c < next + 6 && code >= 0; ++c) {
+                int digit = Character.digit(value.charAt(c), 16);
+                code = digit < 0 ? -1 : code * 16 + digit;
+            }
+            if (code < 0)
+                continue;
+            if (decoded == null)
+                decoded = new StringBuilder(value.length());
+            decoded.append(value, copied, next).append((char) code);
+            copied = next + 7;
+            next += 6;
+        }
+        if (decoded == null)
+            return value;
+        return decoded.append(value, copied, value.length()).toString();
+    }
+
+    /**
+     * Starts a cell value in the arena.
+     */
+    public void beginValue() {
+        valueStart = arenaSize;
+    }
+
+    public void appendValue(char[] ch, int start, int length) {
+        ensureArena(length);
+        System.arraycopy(ch, start, arena, arenaSize, length);
+        arenaSize += length;
+    }
+
+    public void appendValue(CharSequence s) {
+        int length = s.length();
+        ensureArena(length);
+        for (int i = 0; i < length; ++i)
+            arena[arenaSize++] = s.charAt(i);
+    }
+
+    /**
+     * @return the number of characters of all values of the row so far,
+     *         the one under construction included
+     */
+    public int charCount() {
+        return arenaSize;
+    }
+
+    /**
+     * @return the number of characters of the value under construction
+     */
+    public int valueLength() {
+        return arenaSize - valueStart;
+    }
+
+    /**
+     * @return the value under construction as a String, for formatters
+     */
+    public String valueString() {
+        return new String(arena, valueStart, arenaSize - valueStart);
+    }
+
+    /**
+     * Drops the value under construction.
+     */
+    public void discardValue() {
+        arenaSize = valueStart;
+    }
+
+    public void commitText(int column) {
+        int i = add(column, TEXT);
+        textStart[i] = valueStart;
+        textLength[i] = arenaSize - valueStart;
+    }
+
+    /**
+     * Stores a number given as its XML literal, as {@link #LONG} when integral;
+     * a literal that is no number is stored as {@link #TEXT}.
+     */
+    public void commitNumber(int column) {
+        int i = add(column, DOUBLE);
+        textStart[i] = valueStart;
+        textLength[i] = arenaSize - valueStart;
+        if (parseLong(i))
+            types[i] = LONG;
+        else if (!DoubleParser.isDecimal(arena, textStart[i], textLength[i]))
+            types[i] = TEXT;
+    }
+
+    /**
+     * Stores a date, time or date-time serial number given as its literal;
+     * a literal that is no number is stored as {@link #TEXT}.
+     */
+    public void commitDate(int column, byte type) {
+        int i = add(column, type);
+        textStart[i] = valueStart;
+        textLength[i] = arenaSize - valueStart;
+        if (parseLong(i)) {
+            doubles[i] = longs[i];
+            doubleParsed[i] = true;
+        }
+        else if (!DoubleParser.isDecimal(arena, textStart[i], textLength[i])) {
+            types[i] = TEXT;
+        }
+    }
+
+    /**
+     * Stores "0" as false, anything else as true.
+     */
+    public void commitBoolean(int column) {
+        boolean value = valueLength() > 0 && arena[valueStart] != '0';
+        arenaSize = valueStart;
+        int i = add(column, BOOLEAN);
+        longs[i] = value ? 1 : 0;
+    }
+
+    /**
+     * Stores the shared string index the value holds.
+     *
+     * @throws NumberFormatException if the value is not a non-negative int
+     */
+    public void commitSharedString(int column) {
+        int length = arenaSize - valueStart;
+        if (length == 0 || length > 10)
+            throw new NumberFormatException(valueString());
+        long index = 0;
+        for (int c = valueStart; c < arenaSize; ++c) {
+            char ch = arena[c];
+            if (ch < '0' || ch > '9')
+                throw new NumberFormatException(valueString());
+            index = index * 10 + (ch - '0');
+        }
+        if (index > Integer.MAX_VALUE)
+            throw new NumberFormatException(valueString());
+        arenaSize = valueStart;
+        int i = add(column, SHARED_STRING);
+        ints[i] = (int) index;
+    }
+
+    private int add(int column, byte type) {
+        if (size == columns.length)
+            growCells();
+        int i = size++;
+        columns[i] = column;
+        types[i] = type;
+        doubleParsed[i] = false;
+        return i;
+    }
+
+    /**
+     * Parses an integral literal of the i-th cell into longs.
+     *
+     * @return false if the literal is not a plain integer that fits a long
+     */
+    private boolean parseLong(int i) {
+        int start = textStart[i];
+        int end = start + textLength[i];
+        boolean negative = start < end && arena[start] == '-';
+        int c = negative ? start + 1 : start;
+        if (c == end || end - c > 18)
+            return false;
+        long value = 0;
+        for (; c < end; ++c) {
+            char ch = arena[c];
+            if (ch < '0' || ch > '9')
+                return false;
+            value = value * 10 + (ch - '0');
+        }
+        longs[i] = negative ? -value : value;
+        return true;
+    }
+
+    private void growCells() {
+        int capacity = columns.length * 2;
+        columns = Arrays.copyOf(columns, capacity);
+        types = Arrays.copyOf(types, capacity);
+        longs = Arrays.copyOf(longs, capacity);
+        doubles = Arrays.copyOf(doubles, capacity);
+        doubleParsed = Arrays.copyOf(doubleParsed, capacity);
+        ints = Arrays.copyOf(ints, capacity);
+        textStart = Arrays.copyOf(textStart, capacity);
+        textLength = Arrays.copyOf(textLength, capacity);
+    }
+
+    private void ensureArena(int extra) {
+        if (arenaSize + extra > arena.length)
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + extra));
+    }
+
+    /**
+     * Window onto the arena, repositioned by {@link #getText}.
+     */
+    private class TextView implements CharSequence {
+        int start;
+        int length;
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            return arena[start + index];
+        }
+
+        public CharSequence subSequence(int from, int to) {
+            return new String(arena, start + from, to - from);
+        }
+
+        @Override
+        public String toString() {
+            return new String(arena, start, length);
+        }
+    }
+}
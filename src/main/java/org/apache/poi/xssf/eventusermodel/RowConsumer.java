@@ -0,0 +1,12 @@
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.IOException;
+
+/**
+ * Receives every parsed row. The buffer is reused for the next row, so
+ * a consumer must copy whatever it wants to keep.
+ */
+public interface RowConsumer {
+
+    void accept(RowBuffer row) throws IOException;
+}
@@ -0,0 +1,64 @@
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streaming sink the sheet handlers write typed cells into.
+ * For every sheet {@link #startSheet} is called once, then each row is
+ * written as {@link #startRow}, cells in ascending column order and
+ * {@link #endRow}; {@link #endSheet} closes the sheet.
+ */
+public interface RowEncoder extends Flushable, Closeable {
+
+    /**
+     * Flushes pending bytes and sends further output to another stream,
+     * e.g. when every sheet goes to a file of its own.
+     */
+    void setOutput(OutputStream out) throws IOException;
+
+    /**
+     * @return the file extension, without the dot, of the produced format
+     */
+    String fileExtension();
+
+    /**
+     * Writes a "name [index=n]:" line separating sheets in a shared stream.
+     * Formats that cannot carry such a line ignore it.
+     */
+    void writeSheetBanner(String sheetName, int sheetIndex) throws IOException;
+
+    void startSheet(String sheetName, int sheetIndex) throws IOException;
+
+    /**
+     * @param rowNumber one-based row number as stored in the sheet
+     */
+    void startRow(int rowNumber) throws IOException;
+
+    /**
+     * Writes a string cell; the value is copied before the call returns.
+     */
+    void writeText(int column, CharSequence value) throws IOException;
+
+    /**
+     * Writes a numeric cell given as its raw XML literal, e.g. "1.5E-3".
+     */
+    void writeNumber(int column, CharSequence value) throws IOException;
+
+    void writeBoolean(int column, boolean value) throws IOException;
+
+    /**
+     * @param minColumns the minimum number of columns of the row, or -1
+     */
+    void endRow(int minColumns) throws IOException;
+
+    void endSheet() throws IOException;
+
+    /**
+     * @return the number of bytes produced so far, including buffered ones;
+     *         a row that leaves it unchanged produced no output
+     */
+    long getBytesWritten();
+}
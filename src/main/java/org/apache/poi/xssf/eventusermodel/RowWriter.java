@@ -0,0 +1,67 @@
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+
+/**
+ * The default row consumer of the converters: writes every cell of a row
+ * to a {@link RowEncoder} by its type, dates and times through the given
+ * formats; date-times are written as their serial number.
+ */
+public class RowWriter implements RowConsumer {
+
+    private final RowEncoder output;
+    private final int minColumns;
+    private final DateFormat dateFormat;
+    private final DateFormat timeFormat;
+
+    /**
+     * Writes dates as M/d/yyyy and times as hh:mm:ss a.
+     */
+    public RowWriter(RowEncoder output, int minColumns) {
+        this(output, minColumns, new SimpleDateFormat("M/d/yyyy"), new SimpleDateFormat("hh:mm:ss a"));
+    }
+
+    /**
+     * @param output The encoder the cells are written into
+     * @param minColumns The minimum number of columns to output, or -1 for no minimum
+     * @param dateFormat The format of {@link RowBuffer#DATE} cells
+     * @param timeFormat The format of {@link RowBuffer#TIME} cells
+     */
+    public RowWriter(RowEncoder output, int minColumns, DateFormat dateFormat, DateFormat timeFormat) {
+        this.output = output;
+        this.minColumns = minColumns;
+        this.dateFormat = dateFormat;
+        this.timeFormat = timeFormat;
+    }
+
+    public void accept(RowBuffer row) throws IOException {
+        output.startRow(row.getRowNumber());
+        for (int i = 0; i < row.size(); ++i) {
+            int column = row.getColumn(i);
+            switch (row.getType(i)) {
+                case RowBuffer.BOOLEAN:
+                    output.writeBoolean(column, row.getBoolean(i));
+                    break;
+                case RowBuffer.LONG:
+                case RowBuffer.DOUBLE:
+                    output.writeNumber(column, row.getText(i));
+                    break;
+                case RowBuffer.DATE:
+                    output.writeText(column, dateFormat.format(DateUtil.getJavaDate(row.getDouble(i))));
+                    break;
+                case RowBuffer.TIME:
+                    output.writeText(column, timeFormat.format(DateUtil.getJavaDate(row.getDouble(i))));
+                    break;
+                default:
+                    output.writeText(column, row.getText(i));
+                    break;
+            }
+        }
+        // The encoder pads missing columns and ends the row
+        output.endRow(minColumns);
+    }
+}
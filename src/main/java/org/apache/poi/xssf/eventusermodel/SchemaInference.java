@@ -0,0 +1,274 @@
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+
+/**
+ * Infers a typed schema while rows stream past. One row of every sheet
+ * names the columns; for the rows after it each column tracks a type,
+ * its null count and minimum and maximum, in memory proportional to the
+ * number of columns. Minimum and maximum are numeric for numeric and date
+ * columns, exact for integer columns, and for string columns taken over
+ * the text of every value, including the ones seen before the column
+ * widened to string.
+ * Types only widen along
+ * boolean &lt; integer &lt; double &lt; string and date &lt; datetime,
+ * time &lt; datetime; numbers mixed with dates become strings.
+ */
+public class SchemaInference implements RowConsumer {
+
+    // Column types, ordered so that the numeric chain widens by max()
+    static final byte EMPTY = 0;
+    static final byte BOOLEAN = 1;
+    static final byte INTEGER = 2;
+    static final byte DOUBLE = 3;
+    static final byte DATE = 4;
+    static final byte TIME = 5;
+    static final byte DATETIME = 6;
+    static final byte STRING = 7;
+
+    private static final String[] TYPE_NAMES = {
+            "empty", "boolean", "integer", "double", "date", "time", "datetime", "string"
+    };
+
+    /**
+     * Statistics of one sheet, indexed by column.
+     */
+    private static class SheetSchema {
+        final String name;
+        long rows;
+        String[] headers = new String[0];
+        byte[] types = new byte[16];
+        long[] present = new long[16];
+        double[] min = new double[16];
+        double[] max = new double[16];
+        long[] longMin = new long[16];
+        long[] longMax = new long[16];
+        String[] textMin = new String[16];
+        String[] textMax = new String[16];
+        int columns;
+
+        SheetSchema(String name) {
+            this.name = name;
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            Arrays.fill(longMin, Long.MAX_VALUE);
+            Arrays.fill(longMax, Long.MIN_VALUE);
+        }
+
+        void ensure(int column) {
+            if (column < types.length)
+                return;
+            int length = types.length;
+            int capacity = Math.max(length * 2, column + 1);
+            types = Arrays.copyOf(types, capacity);
+            present = Arrays.copyOf(present, capacity);
+            min = Arrays.copyOf(min, capacity);
+            max = Arrays.copyOf(max, capacity);
+            longMin = Arrays.copyOf(longMin, capacity);
+            longMax = Arrays.copyOf(longMax, capacity);
+            textMin = Arrays.copyOf(textMin, capacity);
+            textMax = Arrays.copyOf(textMax, capacity);
+            Arrays.fill(min, length, capacity, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, length, capacity, Double.NEGATIVE_INFINITY);
+            Arrays.fill(longMin, length, capacity, Long.MAX_VALUE);
+            Arrays.fill(longMax, length, capacity, Long.MIN_VALUE);
+        }
+    }
+
+    private final int headerRow;
+    private final List<SheetSchema> sheets = new ArrayList<>();
+    private SheetSchema sheet;
+    private boolean headerSeen;
+
+    /**
+     * @param headerRow The one-based row holding the column names, or -1
+     *                  for the first row of every sheet
+     */
+    public SchemaInference(int headerRow) {
+        this.headerRow = headerRow;
+    }
+
+    public void startSheet(String sheetName) {
+        sheet = new SheetSchema(sheetName);
+        sheets.add(sheet);
+        headerSeen = false;
+    }
+
+    public void accept(RowBuffer row) {
+        if (!headerSeen) {
+            if (headerRow < 0 || row.getRowNumber() == headerRow) {
+                readHeader(row);
+                headerSeen = true;
+            }
+            return;
+        }
+        ++sheet.rows;
+        for (int i = 0; i < row.size(); ++i) {
+            int column = row.getColumn(i);
+            sheet.ensure(column);
+            if (column >= sheet.columns)
+                sheet.columns = column + 1;
+            update(row, i, column);
+        }
+    }
+
+    private void readHeader(RowBuffer row) {
+        int width = row.size() == 0 ? 0 : row.getColumn(row.size() - 1) + 1;
+        sheet.headers = new String[width];
+        for (int i = 0; i < row.size(); ++i)
+            sheet.headers[row.getColumn(i)] = row.getText(i).toString();
+        sheet.ensure(width);
+        sheet.columns = Math.max(sheet.columns, width);
+    }
+
+    private void update(RowBuffer row, int i, int column) {
+        byte type;
+        switch (row.getType(i)) {
+            case RowBuffer.BOOLEAN: type = BOOLEAN; break;
+            case RowBuffer.LONG: type = INTEGER; break;
+            case RowBuffer.DOUBLE: type = DOUBLE; break;
+            case RowBuffer.DATE: type = DATE; break;
+            case RowBuffer.TIME: type = TIME; break;
+            case RowBuffer.DATETIME: type = DATETIME; break;
+            default: type = STRING; break;
+        }
+        CharSequence text = row.getText(i);
+        // Empty values count as nulls
+        if (text.length() == 0)
+            return;
+
+        double value = 0;
+        if (type != STRING) {
+            try {
+                value = type == BOOLEAN ? (row.getBoolean(i) ? 1 : 0) : row.getDouble(i);
+            }
+            catch (NumberFormatException ex) {
+                // One odd cell widens the column rather than stopping the conversion
+                type = STRING;
+            }
+        }
+        if (type != STRING) {
+            if (value < sheet.min[column])
+                sheet.min[column] = value;
+            if (value > sheet.max[column])
+                sheet.max[column] = value;
+        }
+        if (type == INTEGER) {
+            // Doubles lose integers above 2^53
+            long exact = row.getLong(i);
+            if (exact < sheet.longMin[column])
+                sheet.longMin[column] = exact;
+            if (exact > sheet.longMax[column])
+                sheet.longMax[column] = exact;
+        }
+        // Any column may still widen to string, so the text bounds cover
+        // every value; copied only when a new bound is found
+        if (sheet.textMin[column] == null || compare(text, sheet.textMin[column]) < 0)
+            sheet.textMin[column] = text.toString();
+        if (sheet.textMax[column] == null || compare(text, sheet.textMax[column]) > 0)
+            sheet.textMax[column] = text.toString();
+
+        sheet.types[column] = widen(sheet.types[column], type);
+        ++sheet.present[column];
+    }
+
+    static byte widen(byte current, byte type) {
+        if (current == EMPTY || current == type)
+            return type;
+        if (current == STRING || type == STRING)
+            return STRING;
+        boolean currentDate = current >= DATE;
+        boolean typeDate = type >= DATE;
+        if (currentDate != typeDate)
+            return STRING;
+        if (currentDate)
+            return DATETIME;
+        return (byte) Math.max(current, type);
+    }
+
+    private static int compare(CharSequence a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; ++i) {
+            int diff = a.charAt(i) - b.charAt(i);
+            if (diff != 0)
+                return diff;
+        }
+        return a.length() - b.length();
+    }
+
+    /**
+     * Writes the schema of every sheet seen so far as one JSON object.
+     */
+    public void write(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write("{\"sheets\":[");
+        for (int s = 0; s < sheets.size(); ++s) {
+            SheetSchema schema = sheets.get(s);
+            if (s > 0)
+                writer.write(',');
+            writer.write("{\"name\":" + quote(schema.name) + ",\"rows\":" + schema.rows + ",\"columns\":[");
+            for (int c = 0; c < schema.columns; ++c) {
+                if (c > 0)
+                    writer.write(',');
+                String name = c < schema.headers.length && schema.headers[c] != null
+                        ? schema.headers[c] : AbstractRowEncoder.columnToName(c);
+                byte type = schema.types[c];
+                writer.write("{\"index\":" + c
+                        + ",\"name\":" + quote(name)
+                        + ",\"type\":\"" + TYPE_NAMES[type] + '"'
+                        + ",\"nulls\":" + (schema.rows - schema.present[c])
+                        + ",\"min\":" + bound(type, schema.min[c], schema.longMin[c], schema.textMin[c])
+                        + ",\"max\":" + bound(type, schema.max[c], schema.longMax[c], schema.textMax[c])
+                        + '}');
+            }
+            writer.write("]}");
+        }
+        writer.write("]}\n");
+        writer.flush();
+    }
+
+    private static String bound(byte type, double value, long integer, String text) {
+        switch (type) {
+            case EMPTY:
+                return "null";
+            case BOOLEAN:
+                return value != 0 ? "true" : "false";
+            case INTEGER:
+                return Long.toString(integer);
+            case DOUBLE:
+                return Double.toString(value);
+            case DATE:
+                return quote(new SimpleDateFormat("yyyy-MM-dd").format(DateUtil.getJavaDate(value)));
+            case TIME:
+                return quote(new SimpleDateFormat("HH:mm:ss").format(DateUtil.getJavaDate(value)));
+            case DATETIME:
+                return quote(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(DateUtil.getJavaDate(value)));
+            default:
+                return text == null ? "null" : quote(text);
+        }
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                quoted.append('\\').append(c);
+            else if (c < 0x20)
+                quoted.append(String.format("\\u%04x", (int) c));
+            else
+                quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+}
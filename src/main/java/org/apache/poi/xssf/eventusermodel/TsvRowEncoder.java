@@ -0,0 +1,77 @@
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Tab separated output in the text format bulk loaders read: no quoting,
+ * tab, line break and backslash inside values are backslash-escaped.
+ */
+public class TsvRowEncoder extends AbstractRowEncoder {
+
+    // Number of fields written to the current row so far
+    private int fieldCount;
+
+    public TsvRowEncoder(OutputStream out) {
+        super(out);
+    }
+
+    public String fileExtension() {
+        return "tsv";
+    }
+
+    public void writeSheetBanner(String sheetName, int sheetIndex) throws IOException {
+        sink.write('\n');
+        writeEscaped(sheetName);
+        sink.writeAscii(" [index=");
+        sink.writeAscii(Integer.toString(sheetIndex));
+        sink.writeAscii("]:\n");
+    }
+
+    public void startRow(int rowNumber) {
+        fieldCount = 0;
+    }
+
+    public void writeText(int column, CharSequence value) {
+        nextField(column);
+        writeEscaped(value);
+    }
+
+    public void writeNumber(int column, CharSequence value) {
+        nextField(column);
+        sink.writeChars(value);
+    }
+
+    public void writeBoolean(int column, boolean value) {
+        nextField(column);
+        sink.writeAscii(value ? "TRUE" : "FALSE");
+    }
+
+    public void endRow(int minColumns) throws IOException {
+        while (fieldCount < minColumns)
+            nextField(fieldCount);
+        sink.write('\n');
+        sink.endRecord();
+    }
+
+    private void nextField(int column) {
+        do {
+            if (fieldCount > 0)
+                sink.write('\t');
+            ++fieldCount;
+        } while (fieldCount <= column);
+    }
+
+    private void writeEscaped(CharSequence value) {
+        for (int i = 0, len = value.length(); i < len; ++i) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\t': sink.writeAscii("\\t"); break;
+                case '\n': sink.writeAscii("\\n"); break;
+                case '\r': sink.writeAscii("\\r"); break;
+                case '\\': sink.writeAscii("\\\\"); break;
+                default: sink.writeChar(c); break;
+            }
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads workbook metadata without parsing any cell: sheet names from
+ * workbook.xml, part sizes from the zip directory, the dimension of each
+ * sheet from the head of its part and the shared strings counts from the
+ * sst root element. Only as much of each part is inflated as the pull
+ * parser needs to reach those elements.
+ */
+public class WorkbookProbe {
+
+    private static final String RELATIONSHIPS_NS =
+            "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String OFFICE_DOCUMENT_TYPE = RELATIONSHIPS_NS + "/officeDocument";
+    private static final String SHARED_STRINGS_TYPE = RELATIONSHIPS_NS + "/sharedStrings";
+
+    /**
+     * Metadata of one worksheet.
+     */
+    public static class SheetInfo {
+        private final String name;
+        private final int index;
+        private final String partName;
+        private final long size;
+        private final long compressedSize;
+        private String dimension;
+        private int firstRow = -1;
+        private int lastRow = -1;
+        private int firstColumn = -1;
+        private int lastColumn = -1;
+
+        SheetInfo(String name, int index, String partName, long size, long compressedSize) {
+            this.name = name;
+            this.index = index;
+            this.partName = partName;
+            this.size = size;
+            this.compressedSize = compressedSize;
+        }
+
+        public String getName() { return name; }
+        public int getIndex() { return index; }
+        public String getPartName() { return partName; }
+        /** Inflated size of the sheet part in bytes, or -1 if unknown */
+        public long getSize() { return size; }
+        public long getCompressedSize() { return compressedSize; }
+        /** The {@code <dimension ref>} value, or null if the sheet has none */
+        public String getDimension() { return dimension; }
+        /** One-based first row of the dimension, or -1 */
+        public int getFirstRow() { return firstRow; }
+        public int getLastRow() { return lastRow; }
+        /** Zero-based first column of the dimension, or -1 */
+        public int getFirstColumn() { return firstColumn; }
+        public int getLastColumn() { return lastColumn; }
+
+        /**
+         * @return the number of rows the dimension spans, or -1 without one
+         */
+        public int getRowCount() {
+            return lastRow < 0 ? -1 : lastRow - firstRow + 1;
+        }
+
+        public int getColumnCount() {
+            return lastColumn < 0 ? -1 : lastColumn - firstColumn + 1;
+        }
+
+        private void setDimension(String ref) {
+            this.dimension = ref;
+            int colon = ref.indexOf(':');
+            String first = colon < 0 ? ref : ref.substring(0, colon);
+            String last = colon < 0 ? ref : ref.substring(colon + 1);
+            int firstDigit = firstDigit(first);
+            int lastDigit = firstDigit(last);
+            if (firstDigit <= 0 || lastDigit <= 0)
+                return;
+            this.firstColumn = nameToColumn(first.substring(0, firstDigit));
+            this.firstRow = Integer.parseInt(first.substring(firstDigit));
+            this.lastColumn = nameToColumn(last.substring(0, lastDigit));
+            this.lastRow = Integer.parseInt(last.substring(lastDigit));
+        }
+    }
+
+    private final File file;
+    private final List<SheetInfo> sheets = new ArrayList<>();
+    private long sharedStringsCount = -1;
+    private long sharedStringsUniqueCount = -1;
+    private long sharedStringsSize = -1;
+    private long elapsedMillis;
+
+    private WorkbookProbe(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Collects the metadata of the given XLSX file.
+     *
+     * @param file The XLSX file to inspect
+     * @return The collected metadata
+     */
+    public static WorkbookProbe probe(File file) throws IOException, XMLStreamException {
+        long start = System.nanoTime();
+        WorkbookProbe probe = new WorkbookProbe(file);
+        try (ZipFile zip = new ZipFile(file)) {
+            probe.read(zip);
+        }
+        probe.elapsedMillis = (System.nanoTime() - start) / 1000000;
+        return probe;
+    }
+
+    public File getFile() { return file; }
+    public List<SheetInfo> getSheets() { return sheets; }
+    /** Number of string cells as declared by the sst part, or -1 */
+    public long getSharedStringsCount() { return sharedStringsCount; }
+    /** Number of distinct shared strings, or -1 */
+    public long getSharedStringsUniqueCount() { return sharedStringsUniqueCount; }
+    /** Inflated size of the shared strings part in bytes, or -1 */
+    public long getSharedStringsSize() { return sharedStringsSize; }
+    public long getElapsedMillis() { return elapsedMillis; }
+
+    private void read(ZipFile zip) throws IOException, XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        String workbookPart = resolve("", relationshipTargets(factory, zip, "", OFFICE_DOCUMENT_TYPE)
+                .getOrDefault(OFFICE_DOCUMENT_TYPE, "xl/workbook.xml"));
+        String workbookDir = workbookPart.substring(0, workbookPart.lastIndexOf('/') + 1);
+        Map<String, String> targets = relationshipTargets(factory, zip, workbookPart, SHARED_STRINGS_TYPE);
+
+        XMLStreamReader reader = open(factory, zip, workbookPart);
+        try {
+            int index = 0;
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "sheet".equals(reader.getLocalName())) {
+                    String name = reader.getAttributeValue(null, "name");
+                    String id = reader.getAttributeValue(RELATIONSHIPS_NS, "id");
+                    String partName = resolve(workbookDir, targets.get(id));
+                    ZipEntry entry = partName == null ? null : zip.getEntry(partName);
+                    SheetInfo sheet = entry == null
+                            ? new SheetInfo(name, index, partName, -1, -1)
+                            : new SheetInfo(name, index, partName, entry.getSize(), entry.getCompressedSize());
+                    sheets.add(sheet);
+                    ++index;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        for (SheetInfo sheet : sheets) {
+            if (sheet.size >= 0)
+                readDimension(factory, zip, sheet);
+        }
+
+        String sstPart = resolve(workbookDir, targets.get(SHARED_STRINGS_TYPE));
+        ZipEntry sstEntry = sstPart == null ? null : zip.getEntry(sstPart);
+        if (sstEntry != null) {
+            sharedStringsSize = sstEntry.getSize();
+            reader = open(factory, zip, sstPart);
+            try {
+                if (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    sharedStringsCount = parseLong(reader.getAttributeValue(null, "count"));
+                    sharedStringsUniqueCount = parseLong(reader.getAttributeValue(null, "uniqueCount"));
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Pulls elements until {@code <dimension>} or the start of the cell data,
+     * whichever comes first; the schema puts dimension before sheetData.
+     */
+    private void readDimension(XMLInputFactory factory, ZipFile zip, SheetInfo sheet)
+            throws IOException, XMLStreamException {
+        XMLStreamReader reader = open(factory, zip, sheet.partName);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT)
+                    continue;
+                String name = reader.getLocalName();
+                if ("dimension".equals(name)) {
+                    String ref = reader.getAttributeValue(null, "ref");
+                    if (ref != null)
+                        sheet.setDimension(ref);
+                    break;
+                }
+                if ("sheetData".equals(name))
+                    break;
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Maps relationship ids of a part to zip entry targets; the target of
+     * the first relationship of the given type is also keyed by the type.
+     */
+    private static Map<String, String> relationshipTargets(XMLInputFactory factory, ZipFile zip,
+                                                           String partName, String type)
+            throws IOException, XMLStreamException {
+        int slash = partName.lastIndexOf('/');
+        String relsPart = partName.substring(0, slash + 1) + "_rels/" + partName.substring(slash + 1) + ".rels";
+        Map<String, String> targets = new HashMap<>();
+        if (zip.getEntry(relsPart) == null)
+            return targets;
+        XMLStreamReader reader = open(factory, zip, relsPart);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT
+                        && "Relationship".equals(reader.getLocalName())) {
+                    String target = reader.getAttributeValue(null, "Target");
+                    targets.put(reader.getAttributeValue(null, "Id"), target);
+                    if (type.equals(reader.getAttributeValue(null, "Type")))
+                        targets.putIfAbsent(type, target);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return targets;
+    }
+
+    private static XMLStreamReader open(XMLInputFactory factory, ZipFile zip, String partName)
+            throws IOException, XMLStreamException {
+        ZipEntry entry = zip.getEntry(partName);
+        if (entry == null)
+            throw new IOException("Part " + partName + " is missing from " + zip.getName());
+        InputStream stream = zip.getInputStream(entry);
+        return factory.createXMLStreamReader(stream);
+    }
+
+    /**
+     * Resolves a relationship target against the directory of its source.
+     */
+    private static String resolve(String dir, String target) {
+        if (target == null)
+            return null;
+        if (target.startsWith("/"))
+            return target.substring(1);
+        return dir + target;
+    }
+
+    private static long parseLong(String value) {
+        return value == null ? -1 : Long.parseLong(value);
+    }
+
+    private static int firstDigit(String ref) {
+        for (int c = 0; c < ref.length(); ++c) {
+            if (Character.isDigit(ref.charAt(c)))
+                return c;
+        }
+        return -1;
+    }
+
+    /**
+     * Converts an Excel column name like "C" to a zero-based index.
+     */
+    private static int nameToColumn(String name) {
+        int column = -1;
+        for (int i = 0; i < name.length(); ++i) {
+            int c = name.charAt(i);
+            column = (column + 1) * 26 + c - 'A';
+        }
+        return column;
+    }
+
+    /**
+     * @return the metadata as one JSON object
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"file\":").append(quote(file.getPath()))
+                .append(",\"sharedStrings\":{\"count\":").append(sharedStringsCount)
+                .append(",\"uniqueCount\":").append(sharedStringsUniqueCount)
+                .append(",\"size\":").append(sharedStringsSize)
+                .append("},\"sheets\":[");
+        for (int i = 0; i < sheets.size(); ++i) {
+            SheetInfo sheet = sheets.get(i);
+            if (i > 0)
+                json.append(',');
+            json.append("{\"index\":").append(sheet.index)
+                    .append(",\"name\":").append(quote(sheet.name))
+                    .append(",\"part\":").append(quote(sheet.partName))
+                    .append(",\"size\":").append(sheet.size)
+                    .append(",\"compressedSize\":").append(sheet.compressedSize)
+                    .append(",\"dimension\":").append(quote(sheet.dimension))
+                    .append(",\"rows\":").append(sheet.getRowCount())
+                    .append(",\"columns\":").append(sheet.getColumnCount())
+                    .append('}');
+        }
+        json.append("],\"elapsedMillis\":").append(elapsedMillis).append('}');
+        return json.toString();
+    }
+
+    private static String quote(String value) {
+        if (value == null)
+            return "null";
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                quoted.append('\\').append(c);
+            else if (c < 0x20)
+                quoted.append(String.format("\\u%04x", (int) c));
+            else
+                quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,352 @@
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+
+/**
+ * Converts many same-schema workbooks into one output. Every row is
+ * prefixed with its source file and sheet name, and only the first header
+ * row is kept. Workbooks are converted in parallel into temporary files,
+ * which are then appended in input order, so the result does not depend
+ * on scheduling. The output may be split into parts of a fixed number of
+ * rows, each starting with the header.
+ */
+public class WorkbookStitcher {
+
+    /** Header labels of the two columns put in front of every row */
+    static final String SOURCE_FILE_COLUMN = "source_file";
+    static final String SOURCE_SHEET_COLUMN = "source_sheet";
+
+    private final Function<OutputStream, RowEncoder> encoderFactory;
+    private final int minColumns;
+    private final Optional<Integer> firstRow;
+    private final Optional<Integer> lastRow;
+    private final Optional<String> sheetRegExp;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long partRows = -1;
+    private ParseLimits limits = new ParseLimits();
+
+    /**
+     * @param encoderFactory Creates the encoder of one workbook for a stream
+     * @param minColumns The minimum number of columns to output, or -1 for no minimum
+     * @param firstRow The first one-based row of every sheet to output; it is the header
+     * @param lastRow The last one-based row of every sheet to output
+     * @param sheetRegExp Only sheets whose name matches are output
+     */
+    public WorkbookStitcher(Function<OutputStream, RowEncoder> encoderFactory, int minColumns,
+                            Optional<Integer> firstRow, Optional<Integer> lastRow,
+                            Optional<String> sheetRegExp) {
+        this.encoderFactory = encoderFactory;
+        this.minColumns = minColumns;
+        this.firstRow = firstRow;
+        this.lastRow = lastRow;
+        this.sheetRegExp = sheetRegExp;
+    }
+
+    /**
+     * @param threads The number of workbooks converted at the same time
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param partRows The number of data rows per output part, or -1 for one output
+     */
+    public void setPartRows(long partRows) {
+        this.partRows = partRows;
+    }
+
+    /**
+     * @param limits The limits every workbook is parsed under; as with
+     *               {@link XLSX2CSV#setLimits}, they are not installed
+     *               into POI's JVM-wide ZipSecureFile settings
+     */
+    public void setLimits(ParseLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Converts the workbooks and writes the combined rows.
+     *
+     * @param workbooks The XLSX files, in output order
+     * @param output The output file; with parts enabled they are named
+     *               like {@code name-00000.csv} next to it
+     * @return The files written
+     */
+    public List<File> stitch(List<File> workbooks, File output)
+            throws IOException, InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<Converted>> pending = new ArrayList<>();
+        try {
+            for (File workbook : workbooks)
+                pending.add(executor.submit(() -> convert(workbook)));
+
+            PartWriter writer = new PartWriter(output);
+            try {
+                for (Future<Converted> future : pending) {
+                    Converted converted = future.get();
+                    try {
+                        writer.append(converted);
+                    } finally {
+                        Files.deleteIfExists(converted.file.toPath());
+                    }
+                }
+                if (writer.files.isEmpty())
+                    writer.nextPart();
+            } finally {
+                writer.close();
+            }
+            return writer.files;
+        } finally {
+            // Workers still running after a failure get a chance to finish
+            // so their temporary files can be removed below
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            for (Future<Converted> future : pending) {
+                if (future.isDone() && !future.isCancelled()) {
+                    try {
+                        Files.deleteIfExists(future.get().file.toPath());
+                    } catch (ExecutionException ex) {
+                        // Nothing was left behind
+                    }
+                }
+            }
+        }
+    }
+
+    private Converted convert(File workbook) throws Exception {
+        File tmp = File.createTempFile("xlsx2csv-", ".part");
+        OPCPackage pkg = null;
+        try {
+            TaggingEncoder encoder = new TaggingEncoder(
+                    encoderFactory.apply(new FileOutputStream(tmp)), workbook.getName());
+            try {
+                pkg = OPCPackage.open(workbook.getPath(), PackageAccess.READ);
+                XLSX2CSV xlsx2csv = new XLSX2CSV(pkg, encoder, minColumns, firstRow, lastRow, sheetRegExp);
+                xlsx2csv.setLimits(limits);
+                xlsx2csv.process();
+            } finally {
+                encoder.close();
+            }
+            return new Converted(tmp, Arrays.copyOf(encoder.recordEnds, encoder.records), encoder.headers);
+        } catch (Exception ex) {
+            Files.deleteIfExists(tmp.toPath());
+            throw new IOException("Failed to convert " + workbook.getPath(), ex);
+        } finally {
+            if (pkg != null)
+                pkg.revert();
+        }
+    }
+
+    /**
+     * Output of one workbook: the encoded rows and where each of them ends.
+     */
+    private static class Converted {
+        final File file;
+        final long[] recordEnds;
+        final BitSet headers;
+
+        Converted(File file, long[] recordEnds, BitSet headers) {
+            this.file = file;
+            this.recordEnds = recordEnds;
+            this.headers = headers;
+        }
+    }
+
+    /**
+     * Appends converted workbooks, keeping the first header only and
+     * starting a new part whenever the current one is full.
+     */
+    private class PartWriter {
+        final File output;
+        final List<File> files = new ArrayList<>();
+        final byte[] buffer = new byte[64 * 1024];
+        byte[] header;
+        OutputStream part;
+        long rowsInPart;
+
+        PartWriter(File output) {
+            this.output = output;
+        }
+
+        void append(Converted converted) throws IOException {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(converted.file.toPath()))) {
+                long start = 0;
+                for (int i = 0; i < converted.recordEnds.length; ++i) {
+                    int length = (int) (converted.recordEnds[i] - start);
+                    start = converted.recordEnds[i];
+                    if (converted.headers.get(i)) {
+                        byte[] record = new byte[length];
+                        readFully(in, record, length);
+                        // Parts already started without a header stay so
+                        if (header == null && part == null)
+                            header = record;
+                        continue;
+                    }
+                    if (part == null || (partRows > 0 && rowsInPart == partRows))
+                        nextPart();
+                    copy(in, part, length);
+                    ++rowsInPart;
+                }
+            }
+        }
+
+        void nextPart() throws IOException {
+            close();
+            File file = output;
+            if (partRows > 0) {
+                String name = output.getName();
+                int dot = name.lastIndexOf('.');
+                String stem = dot < 0 ? name : name.substring(0, dot);
+                String extension = dot < 0 ? "" : name.substring(dot);
+                file = new File(output.getAbsoluteFile().getParentFile(),
+                        String.format("%s-%05d%s", stem, files.size(), extension));
+            }
+            files.add(file);
+            part = new BufferedOutputStream(new FileOutputStream(file), buffer.length);
+            if (header != null)
+                part.write(header);
+            rowsInPart = 0;
+        }
+
+        void close() throws IOException {
+            if (part != null) {
+                part.close();
+                part = null;
+            }
+        }
+
+        private void readFully(InputStream in, byte[] record, int length) throws IOException {
+            int read = 0;
+            while (read < length) {
+                int n = in.read(record, read, length - read);
+                if (n < 0)
+                    throw new EOFException();
+                read += n;
+            }
+        }
+
+        private void copy(InputStream in, OutputStream out, long length) throws IOException {
+            while (length > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+                if (n < 0)
+                    throw new EOFException();
+                out.write(buffer, 0, n);
+                length -= n;
+            }
+        }
+    }
+
+    /**
+     * Puts the source columns in front of every row and remembers where
+     * each produced record ends and which records are sheet headers.
+     */
+    static class TaggingEncoder implements RowEncoder {
+        private final RowEncoder delegate;
+        private final String sourceFile;
+        private String sheetName;
+        private boolean firstRowOfSheet;
+        private long rowStart;
+
+        long[] recordEnds = new long[1024];
+        int records;
+        final BitSet headers = new BitSet();
+
+        TaggingEncoder(RowEncoder delegate, String sourceFile) {
+            this.delegate = delegate;
+            this.sourceFile = sourceFile;
+            if (delegate instanceof JsonLinesRowEncoder)
+                ((JsonLinesRowEncoder) delegate).setLeadingColumns(2);
+        }
+
+        public void setOutput(OutputStream out) throws IOException {
+            delegate.setOutput(out);
+        }
+
+        public String fileExtension() {
+            return delegate.fileExtension();
+        }
+
+        /**
+         * Rows carry their sheet name, so no banners are written.
+         */
+        public void writeSheetBanner(String sheetName, int sheetIndex) {
+        }
+
+        public void startSheet(String sheetName, int sheetIndex) throws IOException {
+            this.sheetName = sheetName;
+            this.firstRowOfSheet = true;
+            delegate.startSheet(sheetName, sheetIndex);
+        }
+
+        public void startRow(int rowNumber) throws IOException {
+            rowStart = delegate.getBytesWritten();
+            delegate.startRow(rowNumber);
+            delegate.writeText(0, firstRowOfSheet ? SOURCE_FILE_COLUMN : sourceFile);
+            delegate.writeText(1, firstRowOfSheet ? SOURCE_SHEET_COLUMN : sheetName);
+        }
+
+        public void writeText(int column, CharSequence value) throws IOException {
+            delegate.writeText(column + 2, value);
+        }
+
+        public void writeNumber(int column, CharSequence value) throws IOException {
+            delegate.writeNumber(column + 2, value);
+        }
+
+        public void writeBoolean(int column, boolean value) throws IOException {
+            delegate.writeBoolean(column + 2, value);
+        }
+
+        public void endRow(int minColumns) throws IOException {
+            delegate.endRow(minColumns > 0 ? minColumns + 2 : minColumns);
+            long end = delegate.getBytesWritten();
+            if (end != rowStart) {
+                if (records == recordEnds.length)
+                    recordEnds = Arrays.copyOf(recordEnds, records * 2);
+                if (firstRowOfSheet)
+                    headers.set(records);
+                recordEnds[records++] = end;
+            }
+            firstRowOfSheet = false;
+        }
+
+        public void endSheet() throws IOException {
+            delegate.endSheet();
+        }
+
+        public long getBytesWritten() {
+            return delegate.getBytesWritten();
+        }
+
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
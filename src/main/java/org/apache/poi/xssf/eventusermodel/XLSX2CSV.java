@@ -1,12 +1,17 @@
 package org.apache.poi.xssf.eventusermodel;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -17,8 +22,6 @@ import org.apache.log4j.Logger;
 import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
 import org.apache.poi.openxml4j.opc.OPCPackage;
 import org.apache.poi.openxml4j.opc.PackageAccess;
-import org.apache.poi.ss.usermodel.DateUtil;
-import org.apache.poi.xssf.usermodel.XSSFRichTextString;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
@@ -55,18 +58,18 @@ public class XLSX2CSV {
     class MyXSSFSheetHandler extends DefaultHandler {
         public int currentRow = -1;
 
-        /** Table with unique strings */
-        private ReadOnlySharedStringsTable sharedStringsTable;
+        /** Cells of the current row */
+        private final RowBuffer row;
 
-        /** Destination for data */
-        private final PrintStream output;
+        /** Receives every row at its end */
+        private final RowConsumer consumer;
 
-        /** Number of columns to read starting with leftmost */
-        private final int minColumnCount;
-
-        // Runtime
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("M/d/yyyy");
-        SimpleDateFormat simpleTimeFormat = new SimpleDateFormat("hh:mm:ss a");
+        // Copied from the limits, checked on every element
+        private final int maxCellChars;
+        private final int maxCellsPerRow;
+        private final int maxRowChars;
+        private final long maxRows;
+        private int cellsInRow;
 
         // Set when V start element is seen
         private boolean vIsOpen;
@@ -76,26 +79,22 @@ public class XLSX2CSV {
         private xssfDataType nextDataType;
 
         private int thisColumn = -1;
-        // The last column printed to the output stream
-        private int lastColumnNumber = -1;
-
-        private StringBuffer contents;
 
         /**
          *
-         * @param sst
-         * @param cols
-         * @param target
+         * @param row
+         * @param consumer
          */
         public MyXSSFSheetHandler(
-                ReadOnlySharedStringsTable sst,
-                int cols,
-                PrintStream target) {
-            this.sharedStringsTable = sst;
-            this.minColumnCount = cols;
-            this.output = target;
-            this.contents = new StringBuffer();
+                RowBuffer row,
+                RowConsumer consumer) {
+            this.row = row;
+            this.consumer = consumer;
             this.nextDataType = xssfDataType.NUMBER;
+            this.maxCellChars = limits.getMaxCellChars();
+            this.maxCellsPerRow = limits.getMaxCellsPerRow();
+            this.maxRowChars = limits.getMaxRowChars();
+            this.maxRows = limits.getMaxRows();
         }
 
         /*
@@ -105,6 +104,15 @@ java.lang.String, org.xml.sax.Attributes)
          */
         public void startElement(String uri, String localName, String name,
                                  Attributes attributes) throws SAXException {
+            try {
+                startElement(name, attributes);
+            }
+            catch (IOException ex) {
+                throw new SAXException(ex);
+            }
+        }
+
+        private void startElement(String name, Attributes attributes) throws IOException, SAXException {
             if("row".equals(name)) {
                 // Get the cell reference
                 String r = attributes.getValue("r");
@@ -116,12 +124,23 @@ java.lang.String, org.xml.sax.Attributes)
                     }
                 }
                 currentRow = Integer.parseInt(r.substring(firstDigit));
+                if (++rowCount > maxRows) {
+                    throw new LimitExceededException("Workbook has more than " + maxRows + " rows");
+                }
+                cellsInRow = 0;
+            }
+            else if ("c".equals(name) && ++cellsInRow > maxCellsPerRow) {
+                throw new LimitExceededException("Row " + currentRow + " has more than "
+                        + maxCellsPerRow + " cells");
             }
 //            System.out.println(firstRow.orElse(1) + "\t" + currentRow);
             if (firstRow.orElse(1) > currentRow) { return; }
             if (lastRow.isPresent() && lastRow.get() < currentRow) { return; }
+            if ("row".equals(name)) {
+                row.reset(currentRow);
+            }
             // c => cell
-            if ("c".equals(name)) {
+            else if ("c".equals(name)) {
                 // Get the cell reference
                 String r = attributes.getValue("r");
                 int firstDigit = -1;
@@ -144,6 +163,8 @@ java.lang.String, org.xml.sax.Attributes)
                     nextDataType = xssfDataType.FORMULA;
                 else if ("s".equals(cellType))
                     nextDataType = xssfDataType.SSTINDEX;
+                else if ("str".equals(cellType))
+                    nextDataType = xssfDataType.FORMULA;
                 else if ("2".equals(cellSomething))
                     nextDataType = xssfDataType.DATE;
                 else if ("3".equals(cellSomething))
@@ -155,8 +176,8 @@ java.lang.String, org.xml.sax.Attributes)
             }
             else if ("v".equals(name)) {
                 vIsOpen = true;
-                // Clear contents cache
-                contents.setLength(0);
+                // The value is collected straight into the row
+                row.beginValue();
             }
         }
 
@@ -167,8 +188,16 @@ java.lang.String)
          */
         public void endElement(String uri, String localName, String name)
                 throws SAXException {
+            try {
+                endElement(name);
+            }
+            catch (IOException ex) {
+                throw new SAXException(ex);
+            }
+        }
 
-            String thisStr = null;
+        private void endElement(String name) throws IOException, SAXException {
+            if ("v".equals(name)) { vIsOpen = false; }
             if (firstRow.isPresent() && currentRow < firstRow.get()) { return; }
             if (lastRow.isPresent() && lastRow.get() < currentRow) { return; }
             // v => contents of a cell
@@ -178,83 +207,50 @@ java.lang.String)
                 switch(nextDataType) {
 
                     case BOOL:
-                        char first = contents.charAt(0);
-                        thisStr = first == '0' ? "FALSE" : "TRUE";
+                        row.commitBoolean(thisColumn);
                         break;
 
                     case DATE:
-                        // The value is actually an integer
-                        long daysSince = Long.parseLong(contents.toString());
-                        Date d = DateUtil.getJavaDate(daysSince);
-                        thisStr = '"' + simpleDateFormat.format(d) + '"';
+                        row.commitDate(thisColumn, RowBuffer.DATE);
                         break;
 
                     case DATETIME:
                         // Days to left of decimal, seconds (?) to right of decimal.
-//                        Date dt = DateUtil.getJavaDate(Double.parseDouble(contents.toString()));
-                        thisStr = '"' + contents.toString() + '"';
+                        row.commitDate(thisColumn, RowBuffer.DATETIME);
                         break;
 
                     case SSTINDEX:
-                        String sstIndex = contents.toString();
                         try {
-                            int idx = Integer.parseInt(sstIndex);
-                            XSSFRichTextString rts = new XSSFRichTextString(sharedStringsTable.getEntryAt(idx));
-                            thisStr = '"' + rts.toString() + '"';
+                            row.commitSharedString(thisColumn);
                         }
                         catch (NumberFormatException ex) {
-                            output.println("Pgmr err, lastContents is not int: " + sstIndex);
+                            throw new SAXException("Pgmr err, lastContents is not int: " + row.valueString(), ex);
                         }
                         break;
 
                     case TIME:
-                        Date t = DateUtil.getJavaDate(Double.parseDouble(contents.toString()));
-                        thisStr = '"' + simpleTimeFormat.format(t) + '"';
+                        row.commitDate(thisColumn, RowBuffer.TIME);
                         break;
 
                     case FORMULA:
                         // A formula could result in a string value,
-                        // so always add doublequote characters.
-                        thisStr = '"' + contents.toString() + '"';
+                        // so always keep it as text.
+                        row.commitText(thisColumn);
                         break;
 
                     case NUMBER:
-                        thisStr = contents.toString();
+                        row.commitNumber(thisColumn);
                         break;
 
                     default:
-                        thisStr = "(TODO: Unexpected type: " + nextDataType + ")";
+                        row.discardValue();
+                        row.appendValue("(TODO: Unexpected type: " + nextDataType + ")");
+                        row.commitText(thisColumn);
                         break;
                 }
-
-                // Output after we've seen the string contents
-                // Emit commas for any fields that were missing on this row
-                if(lastColumnNumber == -1) { lastColumnNumber = 0; }
-                for (int i = lastColumnNumber; i < thisColumn; ++i)
-                    output.print(',');
-
-                // Might be the empty string.
-                output.print(thisStr);
-
-                // Update column
-                if(thisColumn > -1)
-                    lastColumnNumber = thisColumn;
-
             }
             else if("row".equals(name)) {
-
-                // Print out any missing commas if needed
-                if(minColumns > 0) {
-                    // Columns are 0 based
-                    if(lastColumnNumber == -1) { lastColumnNumber = 0; }
-                    for(int i=lastColumnNumber; i<(this.minColumnCount); i++) {
-                        output.print(',');
-                    }
-                }
-
-                // We're onto a new row
-                output.println();
-                lastColumnNumber = -1;
+                consumer.accept(row);
             }
 
         }
@@ -264,8 +260,17 @@ java.lang.String)
          */
         public void characters(char[] ch, int start, int length)
                 throws SAXException {
-            if (vIsOpen)
-                contents.append(ch, start, length);
+            if (vIsOpen) {
+                if (row.valueLength() + length > maxCellChars) {
+                    throw new LimitExceededException("Cell in row " + currentRow + " has more than "
+                            + maxCellChars + " characters");
+                }
+                if (row.charCount() + length > maxRowChars) {
+                    throw new LimitExceededException("Row " + currentRow + " has more than "
+                            + maxRowChars + " characters");
+                }
+                row.appendValue(ch, start, length);
+            }
         }
 
         /**
@@ -287,12 +292,28 @@ java.lang.String)
 
     ///////////////////////////////////////
 
+    static final String SHARED_STRINGS_CONTENT_TYPE =
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml";
+
     private OPCPackage xlsxPackage;
     private int minColumns;
-    private PrintStream output;
+    private RowEncoder output;
     private Optional<Integer> firstRow;
     private Optional<Integer> lastRow;
     private Optional<String> sheetRegExp;
+    private File sheetOutputDirectory;
+    private ParseLimits limits = new ParseLimits();
+    // Rows parsed from all sheets, checked against the limits
+    private long rowCount;
+    // Reused for every row of every sheet
+    private final RowBuffer rowBuffer = new RowBuffer();
+    private RowConsumer rowConsumer = this::writeRow;
+    private SchemaInference schemaInference;
+    private final RowWriter rowWriter;
+
+    // Runtime
+    SimpleDateFormat simpleDateFormat = new SimpleDateFormat("M/d/yyyy");
+    SimpleDateFormat simpleTimeFormat = new SimpleDateFormat("hh:mm:ss a");
 
     /**
      * Creates a new XLSX -> CSV converter
@@ -304,19 +325,71 @@ java.lang.String)
      * @param minColumns The minimum number of columns to output, or -1 for no minimum
      */
     public XLSX2CSV(OPCPackage pkg, PrintStream output, int minColumns) {
-        this.xlsxPackage = pkg;
-        this.output = output;
-        this.minColumns = minColumns;
+        this(pkg, output, minColumns, Optional.empty(), Optional.empty(), Optional.empty());
     }
 
     public XLSX2CSV(OPCPackage pkg, PrintStream output, int minColumns,
                     Optional<Integer> firstRow, Optional<Integer> lastRow, Optional<String> sheetRegExp) {
+        this(pkg, new CsvRowEncoder(output), minColumns, firstRow, lastRow, sheetRegExp);
+    }
+
+    /**
+     * @param pkg The XLSX package to process
+     * @param output The encoder the cells are written into
+     * @param minColumns The minimum number of columns to output, or -1 for no minimum
+     * @param firstRow The first one-based row to output
+     * @param lastRow The last one-based row to output
+     * @param sheetRegExp Only sheets whose name matches are output
+     */
+    public XLSX2CSV(OPCPackage pkg, RowEncoder output, int minColumns,
+                    Optional<Integer> firstRow, Optional<Integer> lastRow, Optional<String> sheetRegExp) {
         this.xlsxPackage = pkg;
         this.output = output;
         this.minColumns = minColumns;
         this.firstRow = firstRow;
         this.lastRow = lastRow;
         this.sheetRegExp = sheetRegExp;
+        this.rowWriter = new RowWriter(output, minColumns, simpleDateFormat, simpleTimeFormat);
+    }
+
+    /**
+     * Writes every sheet to a file of its own in the given directory,
+     * named after the sheet, instead of separating sheets by banner lines.
+     */
+    public void setSheetOutputDirectory(File directory) {
+        this.sheetOutputDirectory = directory;
+    }
+
+    /**
+     * Bounds the resources spent on the workbook; the defaults follow
+     * the Excel specification limits. POI's JVM-wide {@link
+     * org.apache.poi.openxml4j.util.ZipSecureFile} settings are left to
+     * the caller, see {@link ParseLimits#applyToZipSecureFile()}.
+     */
+    public void setLimits(ParseLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Receives every parsed row instead of the encoder, e.g. to filter,
+     * project or reorder cells before passing the row on to {@link #writeRow}.
+     */
+    public void setRowConsumer(RowConsumer rowConsumer) {
+        this.rowConsumer = rowConsumer;
+    }
+
+    /**
+     * Shows every row to the schema inference before the row consumer.
+     */
+    public void setSchemaInference(SchemaInference schemaInference) {
+        this.schemaInference = schemaInference;
+    }
+
+    /**
+     * Writes one row to the encoder; the default row consumer.
+     */
+    public void writeRow(RowBuffer row) throws IOException {
+        this.rowWriter.accept(row);
     }
 
     /**
@@ -328,9 +401,22 @@ java.lang.String)
 
         InputSource sheetSource = new InputSource(sheetInputStream);
         SAXParserFactory saxFactory = SAXParserFactory.newInstance();
+        // Sheets never carry a DTD; refusing one rules out entity expansion
+        saxFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        saxFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
         SAXParser saxParser = saxFactory.newSAXParser();
         XMLReader sheetParser = saxParser.getXMLReader();
-        ContentHandler handler = new MyXSSFSheetHandler(sst, this.minColumns, this.output);
+        this.rowBuffer.setSharedStrings(sst);
+        RowConsumer consumer = this.rowConsumer;
+        if (this.schemaInference != null) {
+            SchemaInference schema = this.schemaInference;
+            RowConsumer next = consumer;
+            consumer = row -> {
+                schema.accept(row);
+                next.accept(row);
+            };
+        }
+        ContentHandler handler = new MyXSSFSheetHandler(this.rowBuffer, consumer);
         sheetParser.setContentHandler(handler);
         sheetParser.parse(sheetSource);
     }
@@ -342,50 +428,198 @@ java.lang.String)
     public void process()
             throws IOException, OpenXML4JException, ParserConfigurationException, SAXException {
 
-        ReadOnlySharedStringsTable sst = new ReadOnlySharedStringsTable(this.xlsxPackage);
+        this.rowCount = 0;
+        ReadOnlySharedStringsTable sst = this.limits.readSharedStrings(this.xlsxPackage);
         XSSFReader xssfReader = new XSSFReader(this.xlsxPackage);
         XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator)xssfReader.getSheetsData();
+        Optional<Pattern> pattern = this.sheetRegExp.map(Pattern::compile);
         int index = 0;
         while (iter.hasNext()) {
             InputStream stream = iter.next();
+            stream = this.limits.guard(iter.getSheetPart(), stream);
             String sheetName = iter.getSheetName();
-            if (this.sheetRegExp.isPresent()) {
-                Pattern pattern = Pattern.compile(this.sheetRegExp.get());
-                Matcher matcher = pattern.matcher(sheetName);
-                if (matcher.find()) {
-                    this.output.println();
-                    this.output.println(sheetName + " [index=" + index + "]:");
-                    processSheet(sst, stream);
+            if (!pattern.isPresent() || pattern.get().matcher(sheetName).find()) {
+                if (this.sheetOutputDirectory != null) {
+                    File sheetFile = new File(this.sheetOutputDirectory,
+                            sheetName.replaceAll("[\\\\/:*?\"<>|]", "_") + "." + this.output.fileExtension());
+                    try (OutputStream sheetOutput = new FileOutputStream(sheetFile)) {
+                        this.output.setOutput(sheetOutput);
+                        processSheet(sst, sheetName, index, stream);
+                        this.output.flush();
+                    }
+                }
+                else {
+                    this.output.writeSheetBanner(sheetName, index);
+                    processSheet(sst, sheetName, index, stream);
                 }
             }
-            else {
-                this.output.println();
-                this.output.println(sheetName + " [index=" + index + "]:");
-                processSheet(sst, stream);
-            }
-            // stream.close();
+            stream.close();
             ++index;
         }
+        if (this.sheetOutputDirectory == null) {
+            this.output.flush();
+        }
+    }
+
+    private void processSheet(ReadOnlySharedStringsTable sst, String sheetName, int index, InputStream stream)
+            throws IOException, ParserConfigurationException, SAXException {
+        this.output.startSheet(sheetName, index);
+        if (this.schemaInference != null) {
+            this.schemaInference.startSheet(sheetName);
+        }
+        processSheet(sst, stream);
+        this.output.endSheet();
     }
 
     public static void main(String[] args) throws Exception {
-        if(args.length < 1) {
+        List<String> positional = new ArrayList<>();
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                if (eq < 0)
+                    options.put(arg.substring(2), "");
+                else
+                    options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+            else {
+                positional.add(arg);
+            }
+        }
+
+        if(positional.size() < 1) {
             System.err.println("Use:");
-            System.err.println("  XLSX2CSV <xlsx file> [min columns]");
+            System.err.println("  XLSX2CSV <xlsx file> [min columns] [options]");
+            System.err.println("  XLSX2CSV --stitch <xlsx file>... [options]");
+            System.err.println("Options:");
+            System.err.println("  --format=csv|tsv|jsonl  output format, csv by default");
+            System.err.println("  --delimiter=<char>      csv field separator, ',' by default");
+            System.err.println("  --quote=<char>          csv text quote, '\"' by default");
+            System.err.println("  --line-ending=lf|crlf   csv record terminator, platform default");
+            System.err.println("  --out=<file>            output file, three_test.txt by default");
+            System.err.println("  --sheet-dir=<dir>       write one file per sheet into <dir>");
+            System.err.println("  --probe                 print sheet names, dimensions and sizes as JSON");
+            System.err.println("  --first-row=<n>         first row of every sheet to output");
+            System.err.println("  --last-row=<n>          last row of every sheet to output");
+            System.err.println("  --sheet=<regexp>        only output sheets whose name matches");
+            System.err.println("  --schema[=<row>]        infer column types with names from the given row,");
+            System.err.println("                          the first one by default, into <out>.schema.json");
+            System.err.println("  --stitch                combine all files into one output, rows tagged");
+            System.err.println("                          with file and sheet, first header row kept");
+            System.err.println("  --min-columns=<n>       minimum number of columns with --stitch");
+            System.err.println("  --threads=<n>           files converted in parallel with --stitch");
+            System.err.println("  --part-rows=<n>         split --stitch output into parts of n rows");
+            System.err.println("  --max-part-bytes=<n>    largest inflated zip part, 4 GB by default");
+            System.err.println("  --min-inflate-ratio=<r> smallest compressed/inflated ratio, 0.01 by default");
+            System.err.println("  --max-cell-chars=<n>    largest cell value, 32767 by default");
+            System.err.println("  --max-cells-per-row=<n> most cells in a row, 16384 by default");
+            System.err.println("  --max-row-chars=<n>     most characters in a row, 16777216 by default");
+            System.err.println("  --max-rows=<n>          most rows in a workbook, unbounded by default");
+            System.err.println("  --timing                report time to the first and last row on stderr");
             System.exit(1);
         }
 
-        File xlsxFile = new File(args[0]);
-        if (! xlsxFile.exists()) {
-            System.err.println("Not found or not a file: " + xlsxFile.getPath());
-            System.exit(1);
+        List<File> xlsxFiles = new ArrayList<>();
+        for (String path : positional.subList(0, options.containsKey("stitch") ? positional.size() : 1)) {
+            File xlsxFile = new File(path);
+            if (! xlsxFile.exists()) {
+                System.err.println("Not found or not a file: " + xlsxFile.getPath());
+                System.exit(1);
+            }
+            xlsxFiles.add(xlsxFile);
+        }
+        File xlsxFile = xlsxFiles.get(0);
+
+        if (options.containsKey("probe")) {
+            // Metadata only: neither POI nor log4j is needed. UTF-8 like
+            // every other output, whatever the platform charset
+            System.out.write((WorkbookProbe.probe(xlsxFile).toJson() + "\n").getBytes(StandardCharsets.UTF_8));
+            System.out.flush();
+            return;
+        }
+
+        int minColumns = Integer.parseInt(options.getOrDefault("min-columns", "-1"));
+        if(positional.size() >= 2 && !options.containsKey("stitch")) {
+            minColumns = Integer.parseInt(positional.get(1));
+        }
+        Optional<Integer> firstRow = Optional.ofNullable(options.get("first-row")).map(Integer::valueOf);
+        Optional<Integer> lastRow = Optional.ofNullable(options.get("last-row")).map(Integer::valueOf);
+        Optional<String> sheetRegExp = Optional.ofNullable(options.get("sheet"));
+
+        configureLogging();
+
+        ParseLimits limits = createLimits(options);
+        limits.applyToZipSecureFile();
+
+        if (options.containsKey("stitch")) {
+            WorkbookStitcher stitcher = new WorkbookStitcher(out -> createEncoder(options, out),
+                    minColumns, firstRow, lastRow, sheetRegExp);
+            stitcher.setLimits(limits);
+            if (options.containsKey("threads"))
+                stitcher.setThreads(Integer.parseInt(options.get("threads")));
+            if (options.containsKey("part-rows"))
+                stitcher.setPartRows(Long.parseLong(options.get("part-rows")));
+            stitcher.stitch(xlsxFiles, new File(options.getOrDefault("out", "three_test.txt")));
+            return;
         }
 
-        int minColumns = -1;
-        if(args.length >= 2) {
-            minColumns = Integer.parseInt(args[1]);
+        File sheetDir = options.containsKey("sheet-dir") ? new File(options.get("sheet-dir")) : null;
+        String outName = options.getOrDefault("out", "three_test.txt");
+        OutputStream out = sheetDir != null ? null : new FileOutputStream(outName);
+        RowEncoder encoder = createEncoder(options, out);
+
+        // The package open is instantaneous, as it should be.
+        OPCPackage p = OPCPackage.open(xlsxFile.getPath(), PackageAccess.READ);
+        XLSX2CSV xlsx2csv = new XLSX2CSV(p, encoder, minColumns, firstRow, lastRow, sheetRegExp);
+        xlsx2csv.setLimits(limits);
+        if (sheetDir != null) {
+            sheetDir.mkdirs();
+            xlsx2csv.setSheetOutputDirectory(sheetDir);
+        }
+        SchemaInference schema = null;
+        if (options.containsKey("schema")) {
+            String headerRow = options.get("schema");
+            schema = new SchemaInference(headerRow.isEmpty() ? -1 : Integer.parseInt(headerRow));
+            xlsx2csv.setSchemaInference(schema);
+        }
+        boolean timing = options.containsKey("timing");
+        if (timing) {
+            RowConsumer write = xlsx2csv::writeRow;
+            boolean[] first = {true};
+            xlsx2csv.setRowConsumer(row -> {
+                write.accept(row);
+                if (first[0]) {
+                    first[0] = false;
+                    encoder.flush();
+                    reportTime("first row");
+                }
+            });
+        }
+        xlsx2csv.process();
+        encoder.close();
+        if (timing) {
+            reportTime("last row");
+        }
+        if (schema != null) {
+            File schemaFile = sheetDir != null ? new File(sheetDir, "schema.json") : new File(outName + ".schema.json");
+            try (OutputStream schemaOut = new FileOutputStream(schemaFile)) {
+                schema.write(schemaOut);
+            }
         }
+        // Want to call close() here, but the package is open for read,
+        // so it's not necessary, and it complains if I do call it!
+        p.revert();
+    }
 
+    /**
+     * Sets up log4j, only when POI is told to log through a logger other
+     * than its silent default with the org.apache.poi.util.POILogger
+     * system property; otherwise nothing is ever logged and loading log4j
+     * would only delay the first row.
+     */
+    static void configureLogging() {
+        if (System.getProperty("org.apache.poi.util.POILogger") == null)
+            return;
         // If no log4j configuration is provided, these messages appear:
         //   log4j:WARN No appenders could be found for logger (org.openxml4j.opc).
         //   log4j:WARN Please initialize the log4j system properly.
@@ -393,20 +627,60 @@ java.lang.String)
         //   0 [main] DEBUG org.openxml4j.opc  - Parsing relationship: /xl/_rels/workbook.xml.rels
         //  46 [main] DEBUG org.openxml4j.opc  - Parsing relationship: /_rels/.rels
         // Added the call to setLevel() to turn these off, now I see nothing.
-
         BasicConfigurator.configure();
         Logger.getRootLogger().setLevel(Level.INFO);
+    }
 
-        // The package open is instantaneous, as it should be.
-        OPCPackage p = OPCPackage.open(xlsxFile.getPath(), PackageAccess.READ);
-        Optional<Integer> firstRow = Optional.ofNullable(null);
-        Optional<Integer> lastRow = Optional.ofNullable(null);
-        Optional<String> sheetRegExp = Optional.ofNullable(null);
-        XLSX2CSV xlsx2csv = new XLSX2CSV(p, new PrintStream(new BufferedOutputStream(new FileOutputStream("three_test.txt")), true), minColumns, firstRow, lastRow, sheetRegExp);
-        xlsx2csv.process();
-        // Want to call close() here, but the package is open for read,
-        // so it's not necessary, and it complains if I do call it!
-        p.revert();
+    /**
+     * Prints the milliseconds since JVM start to stderr. The clock is read
+     * before the management classes are loaded to look the start time up.
+     */
+    private static void reportTime(String event) {
+        long now = System.currentTimeMillis();
+        long start = ManagementFactory.getRuntimeMXBean().getStartTime();
+        System.err.println(event + ": " + (now - start) + " ms after JVM start");
+    }
+
+    /**
+     * Builds the parse limits from the --max-* and --min-inflate-ratio options.
+     */
+    static ParseLimits createLimits(Map<String, String> options) {
+        ParseLimits limits = new ParseLimits();
+        if (options.containsKey("max-part-bytes"))
+            limits.setMaxPartBytes(Long.parseLong(options.get("max-part-bytes")));
+        if (options.containsKey("min-inflate-ratio"))
+            limits.setMinInflateRatio(Double.parseDouble(options.get("min-inflate-ratio")));
+        if (options.containsKey("max-cell-chars"))
+            limits.setMaxCellChars(Integer.parseInt(options.get("max-cell-chars")));
+        if (options.containsKey("max-cells-per-row"))
+            limits.setMaxCellsPerRow(Integer.parseInt(options.get("max-cells-per-row")));
+        if (options.containsKey("max-row-chars"))
+            limits.setMaxRowChars(Integer.parseInt(options.get("max-row-chars")));
+        if (options.containsKey("max-rows"))
+            limits.setMaxRows(Long.parseLong(options.get("max-rows")));
+        return limits;
+    }
+
+    /**
+     * Builds the encoder selected by the --format and csv options.
+     */
+    static RowEncoder createEncoder(Map<String, String> options, OutputStream out) {
+        String format = options.getOrDefault("format", "csv");
+        switch (format) {
+            case "csv":
+                String delimiter = options.getOrDefault("delimiter", ",");
+                String quote = options.getOrDefault("quote", "\"");
+                String lineEnding = options.containsKey("line-ending")
+                        ? ("crlf".equals(options.get("line-ending")) ? "\r\n" : "\n")
+                        : System.lineSeparator();
+                return new CsvRowEncoder(out, delimiter.charAt(0), quote.charAt(0), lineEnding);
+            case "tsv":
+                return new TsvRowEncoder(out);
+            case "jsonl":
+                return new JsonLinesRowEncoder(out);
+            default:
+                throw new IllegalArgumentException("Unknown output format: " + format);
+        }
     }
 
-}
\ No newline at end of file
+}